@@ -26,9 +26,12 @@ package com.ray3k.skincomposer;
 import com.badlogic.gdx.Graphics;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
+import com.ray3k.skincomposer.data.PackedAtlas;
 
 public interface DesktopWorker {
     public void texturePack(Array<FileHandle> handles, FileHandle localFile, FileHandle targetFile, int MaxWidth, int MaxHeight, boolean useStripWhitespace);
+    public PackedAtlas texturePack(Array<FileHandle> handles, FileHandle localFile, int maxWidth, int maxHeight, boolean useStripWhitespace, TexturePackListener listener);
+    public void cancelTexturePack();
     public void sizeWindowToFit(int maxWidth, int maxHeight, int displayBorder, Graphics graphics);
     public void centerWindow(Graphics graphics);
     public void addFilesDroppedListener(FilesDroppedListener filesDroppedListener);
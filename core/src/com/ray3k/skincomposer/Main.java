@@ -472,6 +472,24 @@ public class Main extends ApplicationAdapter {
         dialog.show(stage);
     }
     
+    /**
+     * Shows the loading dialog with the progress of the preview atlas while it
+     * is packed off the render thread, then runs the runnable. A failed or
+     * canceled pack leaves the atlas out of date so the runnable packs it
+     * again and reports the error.
+     * @param runnable 
+     */
+    public void showDialogPacking(Runnable runnable) {
+        DialogLoading dialog = new DialogLoading("", skin, listener -> {
+            try {
+                AtlasData.getInstance().writeAtlas(listener);
+            } catch (Exception e) {
+                Gdx.app.error(getClass().getName(), "Unable to pack texture atlas in the background", e);
+            }
+        }, runnable);
+        dialog.show(stage);
+    }
+    
     public void showDialogError(String title, String message, Runnable runnable) {
         Dialog dialog = new Dialog(title, skin, "dialog") {
             @Override
@@ -28,22 +28,33 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.PixmapIO;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
-import com.badlogic.gdx.graphics.g2d.TextureAtlas.AtlasRegion;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData.Page;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData.Region;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.ray3k.skincomposer.Main;
-import java.io.File;
+import com.ray3k.skincomposer.TexturePackListener;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class AtlasData {
     private static AtlasData instance;
-    public boolean atlasCurrent = false;
+    public volatile boolean atlasCurrent = false;
     private Array<DrawableData> drawables;
+    private EdgeColorCache edgeColors;
+    private transient PackedAtlas packedAtlas;
+    private transient AtlasManifest packedManifest;
     
     private AtlasData() {
         drawables = new Array<>();
+        edgeColors = new EdgeColorCache();
     }
     
     public static AtlasData getInstance() {
@@ -55,10 +66,15 @@ public class AtlasData {
     
     public void clear() {
         drawables.clear();
-        atlasCurrent = false;
+        edgeColors.clear();
+        invalidateAtlas();
+        disposePackedAtlas();
     }
     
     public static void loadInstance(AtlasData instance) {
+        if (AtlasData.instance != null && AtlasData.instance != instance) {
+            AtlasData.instance.disposePackedAtlas();
+        }
         AtlasData.instance = instance;
     }
 
@@ -66,6 +82,10 @@ public class AtlasData {
         return drawables;
     }
     
+    public EdgeColorCache getEdgeColors() {
+        return edgeColors;
+    }
+    
     public DrawableData getDrawable(String name) {
         DrawableData returnValue = null;
         for (DrawableData data : drawables) {
@@ -78,7 +98,16 @@ public class AtlasData {
         return returnValue;
     }
     
-    public void readAtlas(FileHandle fileHandle) throws Exception {
+    /**
+     * Adds a drawable for every region in the atlas.
+     * @param fileHandle
+     * @param lazy If true, the regions are not written to files and each
+     * drawable references its region in the atlas until
+     * {@link #materialize(Array)} is called for it. Otherwise every region is
+     * written to its file.
+     * @throws Exception 
+     */
+    public void readAtlas(FileHandle fileHandle, boolean lazy) throws Exception {
         if (fileHandle.exists()) {
             FileHandle saveFile = ProjectData.instance().getSaveFile();
             FileHandle targetDirectory;
@@ -90,93 +119,309 @@ public class AtlasData {
             
             targetDirectory.mkdirs();
             
-            TextureAtlas atlas = new TextureAtlas(fileHandle);
-            Array<AtlasRegion> regions = atlas.getRegions();
+            TextureAtlasData atlas = new TextureAtlasData(fileHandle, fileHandle.parent(), false);
+            ObjectMap<Page, Pixmap> pagePixmaps = new ObjectMap<>();
             
-            for (AtlasRegion region : regions) {
-                Texture texture = region.getTexture();
-                if (!texture.getTextureData().isPrepared()) {
-                    texture.getTextureData().prepare();
+            //regions with the same name write the same file, the last one wins
+            ObjectMap<String, Region> lastRegions = new ObjectMap<>();
+            for (Region region : atlas.getRegions()) {
+                lastRegions.put(getRegionFileName(region), region);
+            }
+            
+            Pixmap.Blending blending = Pixmap.getBlending();
+            Pixmap.setBlending(Pixmap.Blending.None);
+            try {
+                //a lazy import only extracts the region to choose a background color
+                ArrayList<Callable<DrawableData>> tasks = new ArrayList<>();
+                for (Region region : atlas.getRegions()) {
+                    Pixmap pagePixmap = getPagePixmap(region.page, pagePixmaps);
+                    FileHandle outputFile = targetDirectory.child(getRegionFileName(region));
+                    boolean write = !lazy && lastRegions.get(outputFile.name()) == region;
+                    tasks.add(() -> {
+                        Pixmap regionPixmap = extractRegion(pagePixmap, region);
+                        try {
+                            if (write) {
+                                PixmapIO.writePNG(outputFile, regionPixmap);
+                            }
+                            DrawableData drawable = new DrawableData(outputFile, regionPixmap);
+                            if (lazy) {
+                                drawable.atlasFile = fileHandle;
+                            }
+                            return drawable;
+                        } finally {
+                            regionPixmap.dispose();
+                        }
+                    });
                 }
-                Pixmap.setBlending(Pixmap.Blending.None);
-                Pixmap pixmap = texture.getTextureData().consumePixmap();
-                Pixmap savePixmap;
-                String name;
                 
-                if (region.splits == null && region.pads == null) {
-                    name = region.name + ".png";
-                    savePixmap = new Pixmap(region.getRegionWidth(), region.getRegionHeight(), Pixmap.Format.RGBA8888);
-                    for (int x = 0; x < region.getRegionWidth(); x++) {
-                        for (int y = 0; y < region.getRegionHeight(); y++) {
-                            int colorInt = pixmap.getPixel(region.getRegionX() + x, region.getRegionY() + y);
-                            savePixmap.drawPixel(x, y, colorInt);
-                        }
-                    }
-                } else {
-                    name = region.name + ".9.png";
-                    savePixmap = new Pixmap(region.getRegionWidth() + 2, region.getRegionHeight() + 2, pixmap.getFormat());
-                    int x;
-                    int y;
-                    
-                    //draw 9 patch lines
-                    savePixmap.setColor(Color.BLACK);
-
-                    if (region.splits != null) {
-                        x = 0;
-                        for (y = region.splits[2] + 1; y < savePixmap.getHeight() - region.splits[3] - 1; y++) {
-                            savePixmap.drawPixel(x, y);
-                        }
-                        
-                        y = 0;
-                        for (x = region.splits[0] + 1; x < savePixmap.getWidth() - region.splits[1] - 1; x++) {
-                            savePixmap.drawPixel(x, y);
-                        }
+                drawables.addAll(invokeAll(tasks));
+            } finally {
+                for (Pixmap pixmap : pagePixmaps.values()) {
+                    pixmap.dispose();
+                }
+                Pixmap.setBlending(blending);
+            }
+        } else {
+            throw new FileNotFoundException();
+        }
+    }
+    
+    /**
+     * Writes the files of drawables that still reference a region in an
+     * imported atlas. Every drawable sharing one of those files stops
+     * referencing the atlas. Each atlas is only loaded once.
+     * @param drawables
+     * @throws Exception 
+     */
+    public void materialize(Array<DrawableData> drawables) throws Exception {
+        ObjectMap<FileHandle, Array<FileHandle>> filesByAtlas = new ObjectMap<>();
+        for (DrawableData drawable : drawables) {
+            if (drawable.atlasFile != null) {
+                Array<FileHandle> files = filesByAtlas.get(drawable.atlasFile);
+                if (files == null) {
+                    files = new Array<>();
+                    filesByAtlas.put(drawable.atlasFile, files);
+                }
+                if (!files.contains(drawable.file, false)) {
+                    files.add(drawable.file);
+                }
+            }
+        }
+        
+        for (ObjectMap.Entry<FileHandle, Array<FileHandle>> entry : filesByAtlas) {
+            if (!entry.key.exists()) {
+                throw new FileNotFoundException(entry.key.path());
+            }
+            
+            TextureAtlasData atlas = new TextureAtlasData(entry.key, entry.key.parent(), false);
+            ObjectMap<Page, Pixmap> pagePixmaps = new ObjectMap<>();
+            Pixmap.Blending blending = Pixmap.getBlending();
+            Pixmap.setBlending(Pixmap.Blending.None);
+            
+            try {
+                //regions with the same name share a file, the last one wins
+                ObjectMap<String, Region> lastRegions = new ObjectMap<>();
+                for (Region region : atlas.getRegions()) {
+                    lastRegions.put(getRegionFileName(region), region);
+                }
+                
+                ArrayList<Callable<FileHandle>> tasks = new ArrayList<>();
+                for (FileHandle file : entry.value) {
+                    Region region = lastRegions.get(file.name());
+                    if (region == null) {
+                        throw new FileNotFoundException(file.name() + " in " + entry.key.path());
                     }
                     
-                    if (region.pads != null) {
-                        x = savePixmap.getWidth() - 1;
-                        for (y = region.pads[2] + 1; y < savePixmap.getHeight() - region.pads[3] - 1; y++) {
-                            savePixmap.drawPixel(x, y);
-                        }
-                        
-                        y = savePixmap.getHeight() - 1;
-                        for (x = region.pads[0] + 1; x < savePixmap.getWidth() - region.pads[1] - 1; x++) {
-                            savePixmap.drawPixel(x, y);
-                        }
-                    }
-
-                    for (x = 0; x < region.getRegionWidth(); x++) {
-                        for (y = 0; y < region.getRegionHeight(); y++) {
-                            int colorInt = pixmap.getPixel(region.getRegionX() + x, region.getRegionY() + y);
-                            savePixmap.drawPixel(x + 1, y + 1, colorInt);
+                    Pixmap pagePixmap = getPagePixmap(region.page, pagePixmaps);
+                    tasks.add(() -> {
+                        Pixmap regionPixmap = extractRegion(pagePixmap, region);
+                        try {
+                            PixmapIO.writePNG(file, regionPixmap);
+                            return file;
+                        } finally {
+                            regionPixmap.dispose();
                         }
-                    }
+                    });
+                }
+                invokeAll(tasks);
+            } finally {
+                for (Pixmap pixmap : pagePixmaps.values()) {
+                    pixmap.dispose();
                 }
-                FileHandle outputFile = targetDirectory.child(name);
-                PixmapIO.writePNG(outputFile, savePixmap);
-                DrawableData drawable = new DrawableData(outputFile);
-                drawables.add(drawable);
+                Pixmap.setBlending(blending);
             }
             
-            
+            for (DrawableData drawable : this.drawables) {
+                if (entry.value.contains(drawable.file, false)) {
+                    drawable.atlasFile = null;
+                }
+            }
+        }
+    }
+    
+    public void materialize(DrawableData drawable) throws Exception {
+        materialize(Array.with(drawable));
+    }
+    
+    /**
+     * Writes the files of all drawables that still reference an imported
+     * atlas.
+     * @throws Exception 
+     * @see #materialize(Array)
+     */
+    public void materializeDrawables() throws Exception {
+        materialize(drawables);
+    }
+    
+    /**
+     * Returns the decoded page, decoding it the first time it is requested.
+     * Pages are decoded without OpenGL so atlases can be read off the render
+     * thread.
+     * @param page
+     * @param pagePixmaps Pages decoded so far. The caller must dispose them
+     * when done.
+     * @return 
+     */
+    private Pixmap getPagePixmap(Page page, ObjectMap<Page, Pixmap> pagePixmaps) {
+        Pixmap pixmap = pagePixmaps.get(page);
+        if (pixmap == null) {
+            pixmap = new Pixmap(page.textureFile);
+            pagePixmaps.put(page, pixmap);
+        }
+        return pixmap;
+    }
+    
+    /**
+     * Runs the tasks on a thread pool and returns their results in order.
+     * @param <T>
+     * @param tasks
+     * @return
+     * @throws Exception The first exception thrown by a task.
+     */
+    private <T> Array<T> invokeAll(ArrayList<Callable<T>> tasks) throws Exception {
+        Array<T> results = new Array<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+    
+    private String getRegionFileName(Region region) {
+        if (region.splits == null && region.pads == null) {
+            return region.name + ".png";
         } else {
-            throw new FileNotFoundException();
+            return region.name + ".9.png";
+        }
+    }
+    
+    /**
+     * Copies the region out of its page. Nine patches get a border with their
+     * split and pad lines. Blending must be off.
+     * @param pixmap The page.
+     * @param region
+     * @return A new pixmap the caller must dispose.
+     */
+    private Pixmap extractRegion(Pixmap pixmap, Region region) {
+        //rotated regions are stored with their width and height swapped
+        int width = region.rotate ? region.height : region.width;
+        int height = region.rotate ? region.width : region.height;
+        Pixmap savePixmap;
+        if (region.splits == null && region.pads == null) {
+            savePixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+            savePixmap.drawPixmap(pixmap, 0, 0, region.left, region.top, width, height);
+        } else {
+            savePixmap = new Pixmap(width + 2, height + 2, pixmap.getFormat());
+
+            //draw 9 patch lines
+            savePixmap.setColor(Color.BLACK);
+
+            if (region.splits != null) {
+                fillLine(savePixmap, 0, region.splits[2] + 1, 1, savePixmap.getHeight() - region.splits[3] - 1);
+                fillLine(savePixmap, region.splits[0] + 1, 0, savePixmap.getWidth() - region.splits[1] - 1, 1);
+            }
+
+            if (region.pads != null) {
+                fillLine(savePixmap, savePixmap.getWidth() - 1, region.pads[2] + 1, savePixmap.getWidth(), savePixmap.getHeight() - region.pads[3] - 1);
+                fillLine(savePixmap, region.pads[0] + 1, savePixmap.getHeight() - 1, savePixmap.getWidth() - region.pads[1] - 1, savePixmap.getHeight());
+            }
+
+            savePixmap.drawPixmap(pixmap, 1, 1, region.left, region.top, width, height);
+        }
+        return savePixmap;
+    }
+    
+    /**
+     * Fills the pixels from x1, y1 up to but not including x2, y2 with the
+     * current color. Nothing is drawn if the line is empty.
+     */
+    private void fillLine(Pixmap pixmap, int x1, int y1, int x2, int y2) {
+        if (x2 > x1 && y2 > y1) {
+            pixmap.fillRectangle(x1, y1, x2 - x1, y2 - y1);
         }
     }
     
+    /**
+     * Marks the atlas used for previews as out of date and cancels a pack
+     * still running for the previous drawables.
+     */
+    public void invalidateAtlas() {
+        atlasCurrent = false;
+        Main.instance.getDesktopWorker().cancelTexturePack();
+    }
+    
+    /**
+     * Packs the atlas used for previews in memory and marks it current.
+     * @throws Exception 
+     * @see #writeAtlas(TexturePackListener)
+     */
     public void writeAtlas() throws Exception {
-        FileHandle targetFile = Gdx.files.local("temp/" + ProjectData.instance().getId() + ".atlas");
-        targetFile.parent().mkdirs();
-        FileHandle[] oldFiles = targetFile.parent().list(new FilenameFilter() {
-            @Override
-            public boolean accept(File file, String string) {
-                return string.matches(targetFile.nameWithoutExtension() + "\\d*\\.(?i)png");
+        writeAtlas((TexturePackListener) null);
+    }
+    
+    /**
+     * Packs the atlas used for previews in memory and marks it current. The
+     * pack is skipped if the manifest of the previous pack matches the current
+     * drawables and settings. If every drawable still references the same
+     * imported atlas, its pages are used without packing. No OpenGL calls are
+     * made, so the atlas can be packed off the render thread.
+     * <p>
+     * The manifest is only kept in memory, so the first preview after the
+     * project is opened always packs. Unlike the export, the preview doesn't
+     * keep the previous layout, so any change to the drawables or settings
+     * repacks every page.
+     * <p>
+     * If {@link #invalidateAtlas()} is called while packing, the pack is
+     * canceled, the previous atlas is kept and the atlas stays out of date.
+     * @param listener Notified of the progress of the pack. May be null.
+     * @throws Exception 
+     */
+    public void writeAtlas(TexturePackListener listener) throws Exception {
+        //an invalidation while packing sets it back to false
+        atlasCurrent = true;
+        try {
+            packAtlas(listener);
+        } catch (Exception e) {
+            atlasCurrent = false;
+            throw e;
+        }
+    }
+    
+    private void packAtlas(TexturePackListener listener) throws Exception {
+        //drawables that all reference the same imported atlas are previewed from its pages as is
+        FileHandle atlasFile = getSharedAtlasFile();
+        if (atlasFile != null) {
+            TextureAtlasData atlasData = new TextureAtlasData(atlasFile, atlasFile.parent(), false);
+            Array<FileHandle> files = new Array<>();
+            files.add(atlasFile);
+            for (Page page : atlasData.getPages()) {
+                files.add(page.textureFile);
+            }
+            
+            AtlasManifest manifest = AtlasManifest.create(files, ProjectData.instance().getMaxTextureWidth(), ProjectData.instance().getMaxTextureHeight(), ProjectData.instance().getStripWhitespace(), packedManifest);
+            if (packedAtlas != null && manifest.matches(packedManifest)) {
+                return;
             }
-        });
-        for (FileHandle fileHandle : oldFiles) {
-            fileHandle.delete();
+            
+            disposePackedAtlas();
+            packedAtlas = createPackedAtlas(atlasData);
+            packedManifest = manifest;
+            return;
         }
-        targetFile.sibling(targetFile.nameWithoutExtension() + ".atlas").delete();
+        
+        //the pack inputs changed, pack from files
+        materializeDrawables();
         
         Array<FileHandle> files = new Array<>();
         for (DrawableData drawable : drawables) {
@@ -185,21 +430,97 @@ public class AtlasData {
             }
         }
         
-        Main.instance.getDesktopWorker().texturePack(files, ProjectData.instance().getSaveFile(), targetFile, ProjectData.instance().getMaxTextureWidth(), ProjectData.instance().getMaxTextureHeight(), ProjectData.instance().getStripWhitespace());
+        AtlasManifest manifest = AtlasManifest.create(resolveFiles(files), ProjectData.instance().getMaxTextureWidth(), ProjectData.instance().getMaxTextureHeight(), ProjectData.instance().getStripWhitespace(), packedManifest);
+        if (packedAtlas != null && manifest.matches(packedManifest)) {
+            return;
+        }
+        
+        PackedAtlas atlas = Main.instance.getDesktopWorker().texturePack(files, ProjectData.instance().getSaveFile(), ProjectData.instance().getMaxTextureWidth(), ProjectData.instance().getMaxTextureHeight(), ProjectData.instance().getStripWhitespace(), listener);
+        if (atlas == null) {
+            //canceled by invalidateAtlas()
+            return;
+        }
+        
+        disposePackedAtlas();
+        packedAtlas = atlas;
+        packedManifest = manifest;
     }
     
-    public void writeAtlas(FileHandle targetFile) throws Exception {
-        targetFile.parent().mkdirs();
-        FileHandle[] oldFiles = targetFile.parent().list(new FilenameFilter() {
-            @Override
-            public boolean accept(File file, String string) {
-                return string.matches(targetFile.nameWithoutExtension() + "\\d*\\.(?i)png");
+    /**
+     * Resolves drawable files the same way the texture packer does, falling
+     * back to the data folder next to the save file for missing files.
+     * @param files
+     * @return 
+     */
+    private Array<FileHandle> resolveFiles(Array<FileHandle> files) {
+        FileHandle saveFile = ProjectData.instance().getSaveFile();
+        Array<FileHandle> resolved = new Array<>();
+        for (FileHandle file : files) {
+            if (!file.exists() && saveFile != null) {
+                FileHandle localFile = saveFile.sibling(saveFile.nameWithoutExtension() + "_data/" + file.name());
+                if (localFile.exists()) {
+                    file = localFile;
+                }
             }
-        });
-        for (FileHandle fileHandle : oldFiles) {
-            fileHandle.delete();
+            resolved.add(file);
         }
-        targetFile.sibling(targetFile.nameWithoutExtension() + ".atlas").delete();
+        return resolved;
+    }
+    
+    private void disposePackedAtlas() {
+        if (packedAtlas != null) {
+            packedAtlas.dispose();
+            packedAtlas = null;
+        }
+        packedManifest = null;
+    }
+    
+    /**
+     * Returns the atlas referenced by every drawable or null if there are no
+     * drawables or any of them has its own file or references another atlas.
+     * @return 
+     */
+    private FileHandle getSharedAtlasFile() {
+        FileHandle atlasFile = null;
+        for (DrawableData drawable : drawables) {
+            if (drawable.atlasFile == null || atlasFile != null && !atlasFile.equals(drawable.atlasFile)) {
+                return null;
+            }
+            atlasFile = drawable.atlasFile;
+        }
+        return atlasFile;
+    }
+    
+    /**
+     * Loads the pages of an imported atlas without packing. Regions are named
+     * after the drawables that reference them.
+     * @param atlasData
+     * @return 
+     */
+    private PackedAtlas createPackedAtlas(TextureAtlasData atlasData) {
+        PackedAtlas atlas = new PackedAtlas();
+        for (Page page : atlasData.getPages()) {
+            atlas.addPage(page, new Pixmap(page.textureFile));
+        }
+        
+        //regions with the same name share a drawable, the last one wins
+        ObjectMap<String, Region> lastRegions = new ObjectMap<>();
+        for (Region region : atlasData.getRegions()) {
+            region.name = new FileHandle(region.name).name();
+            lastRegions.put(region.name, region);
+        }
+        for (Region region : atlasData.getRegions()) {
+            if (lastRegions.get(region.name) == region) {
+                atlas.addRegion(region);
+            }
+        }
+        return atlas;
+    }
+    
+    public void writeAtlas(FileHandle targetFile) throws Exception {
+        targetFile.parent().mkdirs();
+        materializeDrawables();
+        //the packer replaces the atlas and pages of a previous export and skips the pages that didn't change
         
         Array<FileHandle> files = new Array<>();
         for (DrawableData drawable : drawables) {
@@ -211,11 +532,15 @@ public class AtlasData {
         Main.instance.getDesktopWorker().texturePack(files, ProjectData.instance().getSaveFile(), targetFile, ProjectData.instance().getMaxTextureWidth(), ProjectData.instance().getMaxTextureHeight(), ProjectData.instance().getStripWhitespace());
     }
     
+    /**
+     * Creates a new TextureAtlas from the pages packed by {@link #writeAtlas()}.
+     * The caller is responsible for disposing it.
+     * @return The atlas or null if no atlas has been packed yet.
+     */
     public TextureAtlas getAtlas() {
         TextureAtlas atlas = null;
-        FileHandle atlasFile = Gdx.files.local("temp/" + ProjectData.instance().getId() + ".atlas");
-        if (atlasFile.exists()) {
-            atlas = new TextureAtlas(atlasFile);
+        if (packedAtlas != null) {
+            atlas = packedAtlas.createAtlas();
         }
         return atlas;
     }
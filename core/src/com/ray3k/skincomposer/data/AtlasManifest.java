@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2016 Raymond Buckley
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.ray3k.skincomposer.data;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+/**
+ * Describes the inputs and settings that produced a packed texture atlas.
+ * Kept with the preview atlas so that an unchanged set of drawables can reuse
+ * the existing pages instead of repacking.
+ */
+public class AtlasManifest {
+    public int maxWidth;
+    public int maxHeight;
+    public boolean stripWhitespace;
+    public Array<Entry> entries;
+    private transient ObjectMap<String, Entry> entriesByPath;
+    
+    public AtlasManifest() {
+        entries = new Array<>();
+        entriesByPath = new ObjectMap<>();
+    }
+    
+    /**
+     * Creates a manifest for the given input files. File hashes are only
+     * computed when the size or modification date differs from the matching
+     * entry in the previous manifest.
+     * @param files
+     * @param maxWidth
+     * @param maxHeight
+     * @param stripWhitespace
+     * @param previous Manifest of the last pack, can be null.
+     * @return 
+     */
+    public static AtlasManifest create(Array<FileHandle> files, int maxWidth, int maxHeight, boolean stripWhitespace, AtlasManifest previous) {
+        AtlasManifest manifest = new AtlasManifest();
+        manifest.maxWidth = maxWidth;
+        manifest.maxHeight = maxHeight;
+        manifest.stripWhitespace = stripWhitespace;
+        
+        for (FileHandle file : files) {
+            Entry entry = new Entry();
+            entry.path = file.path();
+            if (file.exists()) {
+                entry.size = file.length();
+                entry.modified = file.lastModified();
+                
+                Entry previousEntry = previous == null ? null : previous.getEntry(entry.path);
+                if (previousEntry != null && previousEntry.size == entry.size && previousEntry.modified == entry.modified) {
+                    entry.hash = previousEntry.hash;
+                } else {
+                    entry.hash = hash(file);
+                }
+            } else {
+                entry.size = -1;
+            }
+            manifest.addEntry(entry);
+        }
+        
+        return manifest;
+    }
+    
+    /**
+     * Adds the entry and indexes it by path for {@link #getEntry(String)}.
+     * @param entry 
+     */
+    public void addEntry(Entry entry) {
+        entries.add(entry);
+        entriesByPath.put(entry.path, entry);
+    }
+    
+    public Entry getEntry(String path) {
+        return entriesByPath.get(path);
+    }
+    
+    /**
+     * Returns true if both manifests describe the same pack inputs.
+     * Modification dates are not compared.
+     * @param other
+     * @return 
+     */
+    public boolean matches(AtlasManifest other) {
+        if (other == null || other.maxWidth != maxWidth || other.maxHeight != maxHeight
+                || other.stripWhitespace != stripWhitespace || other.entries.size != entries.size) {
+            return false;
+        }
+        
+        for (int i = 0; i < entries.size; i++) {
+            Entry entry = entries.get(i);
+            Entry otherEntry = other.entries.get(i);
+            if (!entry.path.equals(otherEntry.path) || entry.size != otherEntry.size || entry.hash == null
+                    || !entry.hash.equals(otherEntry.hash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static String hash(FileHandle file) {
+        InputStream stream = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            stream = file.read();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+            return new BigInteger(1, digest.digest()).toString(16);
+        } catch (Exception e) {
+            Gdx.app.error(AtlasManifest.class.getName(), "Unable to hash file: " + file.path(), e);
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    
+                }
+            }
+        }
+    }
+    
+    public static class Entry {
+        public String path;
+        public long size;
+        public long modified;
+        public String hash;
+    }
+}
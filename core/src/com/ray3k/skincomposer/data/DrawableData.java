@@ -25,6 +25,7 @@ package com.ray3k.skincomposer.data;
 
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonValue;
 import com.ray3k.skincomposer.utils.Utils;
@@ -45,23 +46,99 @@ public class DrawableData implements Json.Serializable{
     public Color tint;
     public String tintName;
     public String name;
+    /**
+     * The imported atlas that holds the image while file has not been written
+     * yet. Null once the image is in file. Not saved, drawables are
+     * materialized before the project is saved.
+     */
+    public transient FileHandle atlasFile;
 
+    /**
+     * The background color is white until {@link #updateBgColor(Color)} is
+     * called once the drawable is added to the project.
+     * @param file 
+     */
     public DrawableData(FileHandle file) {
         this.file = file;
-        Color temp = Utils.averageEdgeColor(file);
-        if (Utils.brightness(temp) > .5f) {
-            bgColor = Color.BLACK;
-        } else {
-            bgColor = Color.WHITE;
-        }
+        bgColor = Color.WHITE;
+        visible = true;
+        this.name = proper(file.name());
+    }
+    
+    /**
+     * Uses the pixels already in memory instead of reading the file again.
+     * Does not dispose pixmap.
+     * @param file
+     * @param pixmap The contents of file.
+     */
+    public DrawableData(FileHandle file, Pixmap pixmap) {
+        this(file, Utils.averageEdgeColor(pixmap, file.name().matches("(?i).*\\.9\\.png$")));
+    }
+    
+    private DrawableData(FileHandle file, Color edgeColor) {
+        this.file = file;
+        bgColor = contrastColor(edgeColor);
         visible = true;
         this.name = proper(file.name());
     }
     
+    /**
+     * Creates an untinted drawable using the same image as drawable without
+     * reading it.
+     * @param drawable 
+     */
+    public DrawableData(DrawableData drawable) {
+        file = drawable.file;
+        atlasFile = drawable.atlasFile;
+        bgColor = drawable.bgColor;
+        visible = true;
+        name = drawable.name;
+    }
+    
     public DrawableData() {
         
     }
 
+    /**
+     * Returns the modification time of the file, or of the atlas while the
+     * region hasn't been written to the file yet.
+     * @return 
+     */
+    public long lastModified() {
+        if (atlasFile != null && !file.exists()) {
+            return atlasFile.lastModified();
+        } else {
+            return file.lastModified();
+        }
+    }
+    
+    /**
+     * Chooses a background color that contrasts with the edges of the image
+     * once tinted. The edge color is taken from the project's
+     * {@link EdgeColorCache} or read on a background thread, bgColor is set
+     * on the render thread.
+     * @param tint Can be null.
+     */
+    public void updateBgColor(Color tint) {
+        AtlasData.getInstance().getEdgeColors().request(file, (Color edgeColor) -> {
+            if (edgeColor != null) {
+                //tinting multiplies every pixel, so it multiplies the average too
+                if (tint != null) {
+                    edgeColor.mul(tint.r, tint.g, tint.b, 1.0f);
+                }
+                bgColor = contrastColor(edgeColor);
+            }
+        });
+    }
+    
+    private static Color contrastColor(Color edgeColor) {
+        if (Utils.brightness(edgeColor) > .5f) {
+            return Color.BLACK;
+        } else {
+            return Color.WHITE;
+        }
+    }
+
     @Override
     public String toString() {
         return name;
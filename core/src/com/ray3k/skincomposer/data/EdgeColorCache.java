@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2016 Raymond Buckley
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.ray3k.skincomposer.data;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.OrderedMap;
+import com.ray3k.skincomposer.utils.Utils;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Average edge colors of drawable images keyed by the hash of the image file.
+ * Used to choose a background that contrasts with a drawable without decoding
+ * the image again. Saved with the project.
+ */
+public class EdgeColorCache implements Json.Serializable {
+    private static final int MAX_SIZE = 2048;
+    private static ExecutorService executor;
+    private final OrderedMap<String, Color> colors;
+
+    public EdgeColorCache() {
+        colors = new OrderedMap<>();
+    }
+    
+    /**
+     * Finds the average edge color of the file on a background thread.
+     * @param file
+     * @param listener Called on the render thread with the color or null if
+     * the file could not be read.
+     */
+    public void request(FileHandle file, EdgeColorListener listener) {
+        getExecutor().execute(() -> {
+            Color color;
+            try {
+                color = get(file);
+            } catch (Exception e) {
+                Gdx.app.error(getClass().getName(), "Error while reading edge color of " + file.path(), e);
+                color = null;
+            }
+            
+            Color result = color;
+            Gdx.app.postRunnable(() -> listener.edgeColor(result));
+        });
+    }
+    
+    /**
+     * Returns the average edge color of the file, decoding it only if the
+     * contents have not been seen before. Can be called from any thread.
+     * @param file
+     * @return A new color.
+     */
+    public Color get(FileHandle file) {
+        boolean ninePatch = file.name().matches("(?i).*\\.9\\.png$");
+        String key = AtlasManifest.hash(file);
+        if (key == null) {
+            return Utils.averageEdgeColor(file);
+        }
+        
+        //the border of a nine patch is skipped, so the same contents can have two colors
+        if (ninePatch) {
+            key += ".9";
+        }
+        
+        synchronized (colors) {
+            Color color = colors.get(key);
+            if (color != null) {
+                return new Color(color);
+            }
+        }
+        
+        Color color = Utils.averageEdgeColor(file);
+        synchronized (colors) {
+            colors.put(key, new Color(color));
+            if (colors.size > MAX_SIZE) {
+                colors.remove(colors.orderedKeys().first());
+            }
+        }
+        return color;
+    }
+    
+    public void clear() {
+        synchronized (colors) {
+            colors.clear();
+        }
+    }
+    
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "Edge Color");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public void write(Json json) {
+        synchronized (colors) {
+            for (OrderedMap.Entry<String, Color> entry : colors) {
+                json.writeValue(entry.key, entry.value);
+            }
+        }
+    }
+
+    @Override
+    public void read(Json json, JsonValue jsonData) {
+        synchronized (colors) {
+            colors.clear();
+            for (JsonValue child : jsonData.iterator()) {
+                colors.put(child.name, json.readValue(Color.class, child));
+            }
+        }
+    }
+    
+    public static interface EdgeColorListener {
+        public void edgeColor(Color color);
+    }
+}
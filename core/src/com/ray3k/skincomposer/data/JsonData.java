@@ -107,7 +107,7 @@ public class JsonData implements Json.Serializable {
         //read drawables from texture atlas file
         FileHandle atlasHandle = fileHandle.sibling(fileHandle.nameWithoutExtension() + ".atlas");
         if (atlasHandle.exists()) {
-            AtlasData.getInstance().readAtlas(atlasHandle);
+            AtlasData.getInstance().readAtlas(atlasHandle, ProjectData.instance().getLazyAtlasImport());
         }
 
         //folder for critical files to be copied to
@@ -150,7 +150,7 @@ public class JsonData implements Json.Serializable {
             } //tinted drawables
             else if (child.name().equals(TintedDrawable.class.getName())) {
                 for (JsonValue tintedDrawable : child.iterator()) {
-                    DrawableData drawableData = new DrawableData(AtlasData.getInstance().getDrawable(tintedDrawable.getString("name")).file);
+                    DrawableData drawableData = new DrawableData(AtlasData.getInstance().getDrawable(tintedDrawable.getString("name")));
                     drawableData.name = tintedDrawable.name;
                     
                     if (!tintedDrawable.get("color").isString()) {
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2016 Raymond Buckley
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package com.ray3k.skincomposer.data;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.AtlasRegion;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData.Page;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData.Region;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+
+/**
+ * Packed atlas pages kept in memory as pixmaps along with their region data.
+ * Used for previews so that packing does not need to write and reload PNG
+ * files.
+ */
+public class PackedAtlas implements Disposable {
+    private final Array<Page> pages;
+    private final Array<Pixmap> pixmaps;
+    private final Array<Region> regions;
+
+    public PackedAtlas() {
+        pages = new Array<>();
+        pixmaps = new Array<>();
+        regions = new Array<>();
+    }
+    
+    /**
+     * The pixmap is disposed when this PackedAtlas is disposed.
+     * @param page
+     * @param pixmap 
+     */
+    public void addPage(Page page, Pixmap pixmap) {
+        pages.add(page);
+        pixmaps.add(pixmap);
+    }
+    
+    public void addRegion(Region region) {
+        regions.add(region);
+    }
+
+    public Array<Page> getPages() {
+        return pages;
+    }
+
+    public Array<Region> getRegions() {
+        return regions;
+    }
+    
+    /**
+     * Creates a new TextureAtlas with textures uploaded from the page pixmaps.
+     * The returned atlas owns its textures and must be disposed separately.
+     * @return 
+     */
+    public TextureAtlas createAtlas() {
+        TextureAtlas atlas = new TextureAtlas();
+        ObjectMap<Page, Texture> textures = new ObjectMap<>();
+        for (int i = 0; i < pages.size; i++) {
+            Page page = pages.get(i);
+            Texture texture = new Texture(pixmaps.get(i), page.format, page.useMipMaps);
+            texture.setFilter(page.minFilter, page.magFilter);
+            texture.setWrap(page.uWrap, page.vWrap);
+            textures.put(page, texture);
+        }
+        
+        for (Region region : regions) {
+            int width = region.width;
+            int height = region.height;
+            AtlasRegion atlasRegion = atlas.addRegion(region.name, textures.get(region.page), region.left, region.top, region.rotate ? height : width, region.rotate ? width : height);
+            atlasRegion.index = region.index;
+            atlasRegion.offsetX = region.offsetX;
+            atlasRegion.offsetY = region.offsetY;
+            atlasRegion.originalWidth = region.originalWidth;
+            atlasRegion.originalHeight = region.originalHeight;
+            atlasRegion.rotate = region.rotate;
+            atlasRegion.splits = region.splits;
+            atlasRegion.pads = region.pads;
+            if (region.flip) {
+                atlasRegion.flip(false, true);
+            }
+        }
+        return atlas;
+    }
+
+    @Override
+    public void dispose() {
+        for (Pixmap pixmap : pixmaps) {
+            pixmap.dispose();
+        }
+        pixmaps.clear();
+        pages.clear();
+        regions.clear();
+    }
+}
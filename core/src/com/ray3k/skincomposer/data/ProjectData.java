@@ -32,6 +32,7 @@ import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonValue;
 import com.badlogic.gdx.utils.JsonWriter;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.ray3k.skincomposer.dialog.DialogError;
 import com.ray3k.skincomposer.panel.PanelClassBar;
 import com.ray3k.skincomposer.panel.PanelMenuBar;
 import com.ray3k.skincomposer.panel.PanelPreviewProperties;
@@ -226,7 +227,22 @@ public class ProjectData implements Json.Serializable{
         }
     }
     
-    public void save(FileHandle file) {
+    /**
+     * Saves the project. Regions still referenced in imported atlases are
+     * written to their files first. If that fails, an error is shown and
+     * nothing is saved.
+     * @param file
+     * @return False if the project was not saved.
+     */
+    public boolean save(FileHandle file) {
+        try {
+            AtlasData.getInstance().materializeDrawables();
+        } catch (Exception e) {
+            Gdx.app.error(getClass().getName(), "Error while writing imported drawables", e);
+            DialogError.showError("Save Error...", "Error while writing the drawables of an imported atlas.\nThe project was not saved.\n\nOpen log?");
+            return false;
+        }
+        
         moveImportedFiles(saveFile, file);
         
         saveFile = file;
@@ -237,10 +253,11 @@ public class ProjectData implements Json.Serializable{
         json.setUsePrototypes(false);
         file.writeString(json.prettyPrint(this), false);
         setChangesSaved(true);
+        return true;
     }
     
-    public void save() {
-        save(saveFile);
+    public boolean save() {
+        return save(saveFile);
     }
     
     public void load(FileHandle file) {
@@ -252,7 +269,7 @@ public class ProjectData implements Json.Serializable{
         generalPref.flush();
         PanelClassBar.instance.populate();
         PanelStyleProperties.instance.populate(PanelClassBar.instance.getStyleSelectBox().getSelected());
-        AtlasData.getInstance().atlasCurrent = false;
+        AtlasData.getInstance().invalidateAtlas();
         PanelPreviewProperties.instance.produceAtlas();
         PanelPreviewProperties.instance.populate();
         instance.setChangesSaved(true);
@@ -321,4 +338,18 @@ public class ProjectData implements Json.Serializable{
         generalPref.putBoolean("useStripWhitespace", useStripWhitespace);
         generalPref.flush();
     }
+    
+    /**
+     * @return True if imported atlas regions are only written to files when
+     * they are needed.
+     * @see AtlasData#readAtlas(FileHandle, boolean)
+     */
+    public boolean getLazyAtlasImport() {
+        return generalPref.getBoolean("lazyAtlasImport", false);
+    }
+
+    public void setLazyAtlasImport(boolean lazyAtlasImport) {
+        generalPref.putBoolean("lazyAtlasImport", lazyAtlasImport);
+        generalPref.flush();
+    }
 }
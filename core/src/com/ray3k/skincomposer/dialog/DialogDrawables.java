@@ -162,7 +162,6 @@ public class DialogDrawables extends Dialog {
             }
             if (!AtlasData.getInstance().atlasCurrent) {
                 AtlasData.getInstance().writeAtlas();
-                AtlasData.getInstance().atlasCurrent = true;
             }
             atlas = AtlasData.getInstance().getAtlas();
 
@@ -360,7 +359,14 @@ public class DialogDrawables extends Dialog {
 
             //preview
             table.row();
-            Container bg = new Container();
+            //the background color can change once the drawable has been read in the background
+            Container bg = new Container() {
+                @Override
+                public void act(float delta) {
+                    super.act(delta);
+                    setColor(drawable.bgColor);
+                }
+            };
             bg.setClip(true);
             bg.setBackground(getSkin().getDrawable("white"));
             bg.setColor(drawable.bgColor);
@@ -391,18 +397,12 @@ public class DialogDrawables extends Dialog {
     
     private void colorSwatchesDialog(DrawableData drawableData) {
         DialogColors dialog = new DialogColors(getSkin(), "dialog-panel", null, true, (ColorData colorData) -> {
-            if (colorData != null) {
-                final DrawableData tintedDrawable = new DrawableData(drawableData.file);
+            if (colorData != null && materialize(drawableData)) {
+                final DrawableData tintedDrawable = new DrawableData(drawableData);
                     tintedDrawable.tintName = colorData.getName();
                     
                     //Fix background color for new, tinted drawable
-                    Color temp = Utils.averageEdgeColor(tintedDrawable.file, colorData.color);
-                    
-                    if (Utils.brightness(temp) > .5f) {
-                        tintedDrawable.bgColor = Color.BLACK;
-                    } else {
-                        tintedDrawable.bgColor = Color.WHITE;
-                    }
+                    tintedDrawable.updateBgColor(colorData.color);
                     
                     final TextField textField = new TextField(drawableData.name, getSkin());
                     final TextButton button = new TextButton("OK", getSkin());
@@ -664,9 +664,9 @@ public class DialogDrawables extends Dialog {
      */
     private void sortDrawablesOldest() {
         Sort.instance().sort(drawables, (DrawableData o1, DrawableData o2) -> {
-            if (o1.file.lastModified() < o2.file.lastModified()) {
+            if (o1.lastModified() < o2.lastModified()) {
                 return -1;
-            } else if (o1.file.lastModified() > o2.file.lastModified()) {
+            } else if (o1.lastModified() > o2.lastModified()) {
                 return 1;
             } else {
                 return 0;
@@ -680,9 +680,9 @@ public class DialogDrawables extends Dialog {
      */
     private void sortDrawablesNewest() {
         Sort.instance().sort(drawables, (DrawableData o1, DrawableData o2) -> {
-            if (o1.file.lastModified() < o2.file.lastModified()) {
+            if (o1.lastModified() < o2.lastModified()) {
                 return 1;
-            } else if (o1.file.lastModified() > o2.file.lastModified()) {
+            } else if (o1.lastModified() > o2.lastModified()) {
                 return -1;
             } else {
                 return 0;
@@ -838,7 +838,7 @@ public class DialogDrawables extends Dialog {
     }
     
     private void drawablesSelected(Array<FileHandle> files) {
-        AtlasData.getInstance().atlasCurrent = false;
+        AtlasData.getInstance().invalidateAtlas();
         Array<DrawableData> backup = new Array<>(AtlasData.getInstance().getDrawables());
         Array<FileHandle> unhandledFiles = new Array<>();
         Array<FileHandle> filesToProcess = new Array<>();
@@ -898,13 +898,14 @@ public class DialogDrawables extends Dialog {
         for (FileHandle file : filesToProcess) {
             DrawableData data = new DrawableData(file);
             if (!checkIfNameExists(data.name)) {
+                data.updateBgColor(null);
                 AtlasData.getInstance().getDrawables().add(data);
             }
         }        
         
         gatherDrawables();
 
-        Main.instance.showDialogLoading(() -> {
+        Main.instance.showDialogPacking(() -> {
             if (!produceAtlas()) {
                 showDrawableError();
                 Gdx.app.log(getClass().getName(), "Attempting to reload drawables backup...");
@@ -924,6 +925,23 @@ public class DialogDrawables extends Dialog {
         });
     }
     
+    /**
+     * Writes the image of a drawable that still references an imported atlas
+     * so that it can be edited.
+     * @param drawableData
+     * @return False if the image could not be written.
+     */
+    private boolean materialize(DrawableData drawableData) {
+        try {
+            AtlasData.getInstance().materialize(drawableData);
+            return true;
+        } catch (Exception e) {
+            Gdx.app.error(getClass().getName(), "Error while writing imported drawable.", e);
+            DialogError.showError("Atlas Error...", "Error while writing imported drawable.\n\nOpen log?");
+            return false;
+        }
+    }
+    
     /**
      * Creates a TintedDrawable based on the provided DrawableData. Prompts
      * user for a Color and name.
@@ -937,18 +955,12 @@ public class DialogDrawables extends Dialog {
         Main.instance.showDialogColorPicker(previousColor, new DialogColorPicker.ColorListener() {
             @Override
             public void selected(Color color) {
-                if (color != null) {
-                    final DrawableData tintedDrawable = new DrawableData(drawableData.file);
+                if (color != null && materialize(drawableData)) {
+                    final DrawableData tintedDrawable = new DrawableData(drawableData);
                     tintedDrawable.tint = color;
                     
                     //Fix background color for new, tinted drawable
-                    Color temp = Utils.averageEdgeColor(tintedDrawable.file, tintedDrawable.tint);
-                    
-                    if (Utils.brightness(temp) > .5f) {
-                        tintedDrawable.bgColor = Color.BLACK;
-                    } else {
-                        tintedDrawable.bgColor = Color.WHITE;
-                    }
+                    tintedDrawable.updateBgColor(tintedDrawable.tint);
                     
                     final TextField textField = new TextField(drawableData.name, getSkin());
                     final TextButton button = new TextButton("OK", getSkin());
@@ -1050,7 +1062,6 @@ public class DialogDrawables extends Dialog {
         try {
             if (!AtlasData.getInstance().atlasCurrent) {
                 AtlasData.getInstance().writeAtlas();
-                AtlasData.getInstance().atlasCurrent = true;
             }
         } catch (Exception e) {
             Gdx.app.error(getClass().getName(), "Error creating atlas upon drawable dialog exit", e);
@@ -219,7 +219,8 @@ public class DialogFonts extends Dialog {
                     DrawableData drawable = new DrawableData(new FileHandle(path));
                     drawable.visible = false;
                     if (!drawables.contains(drawable, false)) {
-                        AtlasData.getInstance().atlasCurrent = false;
+                        AtlasData.getInstance().invalidateAtlas();
+                        drawable.updateBgColor(null);
                         drawables.add(drawable);
                     }
                 }
@@ -579,7 +580,6 @@ public class DialogFonts extends Dialog {
             
             if (!AtlasData.getInstance().atlasCurrent) {
                 AtlasData.getInstance().writeAtlas();
-                AtlasData.getInstance().atlasCurrent = true;
             }
             atlas = AtlasData.getInstance().getAtlas();
 
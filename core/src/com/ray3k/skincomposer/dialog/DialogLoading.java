@@ -34,15 +34,33 @@ import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Align;
 import com.ray3k.skincomposer.Main;
+import com.ray3k.skincomposer.TexturePackListener;
+import java.util.function.Consumer;
 
-public class DialogLoading extends Dialog {
+public class DialogLoading extends Dialog implements TexturePackListener {
     private Skin skin;
     private Runnable runnable;
+    private Consumer<TexturePackListener> backgroundTask;
+    private Thread backgroundThread;
+    private Label progressLabel;
+    private volatile String progress;
     
     public DialogLoading(String title, Skin skin, Runnable runnable) {
+        this(title, skin, null, runnable);
+    }
+    
+    /**
+     * @param title
+     * @param skin
+     * @param backgroundTask Run on its own thread before the runnable. The
+     * dialog shows the progress it reports. May be null.
+     * @param runnable Run on the render thread before the dialog hides.
+     */
+    public DialogLoading(String title, Skin skin, Consumer<TexturePackListener> backgroundTask, Runnable runnable) {
         super(title, skin, "dialog-panel");
         this.skin = skin;
         this.runnable = runnable;
+        this.backgroundTask = backgroundTask;
         setFillParent(true);
         populate();
     }
@@ -52,16 +70,55 @@ public class DialogLoading extends Dialog {
         Dialog dialog = super.show(stage);
         RunnableAction runnableAction = new RunnableAction();
         runnableAction.setRunnable(() -> {
-            if (runnable != null) {
-                runnable.run();
+            if (backgroundTask != null) {
+                backgroundThread = new Thread(() -> backgroundTask.accept(this), "Loading");
+                backgroundThread.setDaemon(true);
+                backgroundThread.start();
+            } else {
+                finish();
             }
-            hide();
         });
         Action action = new SequenceAction(new DelayAction(.5f), runnableAction);
         addAction(action);
         
         return dialog;
     }
+
+    @Override
+    public void act(float delta) {
+        super.act(delta);
+        String progress = this.progress;
+        if (progress != null) {
+            progressLabel.setText(progress);
+        }
+        
+        if (backgroundThread != null && !backgroundThread.isAlive()) {
+            backgroundThread = null;
+            finish();
+        }
+    }
+    
+    private void finish() {
+        if (runnable != null) {
+            runnable.run();
+        }
+        hide();
+    }
+
+    /**
+     * Shows the progress in the dialog. Can be called from any thread.
+     * @param phase
+     * @param completed
+     * @param total 0 if the progress of the phase isn't known.
+     */
+    @Override
+    public void progress(String phase, int completed, int total) {
+        if (total > 0) {
+            progress = phase + " " + completed + "/" + total;
+        } else {
+            progress = phase;
+        }
+    }
     
     public void populate() {
         Table t = getContentTable();
@@ -69,6 +126,10 @@ public class DialogLoading extends Dialog {
         label.setAlignment(Align.center);
         t.add(label).growX();
         t.row();
+        progressLabel = new Label("", skin);
+        progressLabel.setAlignment(Align.center);
+        t.add(progressLabel).growX();
+        t.row();
         Table table = new Table(skin);
         table.setBackground(Main.instance.getLoadingAnimation());
         t.add(table);
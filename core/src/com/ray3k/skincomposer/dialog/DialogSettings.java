@@ -56,6 +56,7 @@ public class DialogSettings extends Dialog {
     private Integer maxUndos;
     private int selectedSkin;
     private boolean useStripWhitespace;
+    private boolean lazyAtlasImport;
 
     public DialogSettings(String title, Skin skin, String windowStyleName) {
         super(title, skin, windowStyleName);
@@ -71,6 +72,7 @@ public class DialogSettings extends Dialog {
         maxUndos = ProjectData.instance().getMaxUndos();
         selectedSkin = ProjectData.instance().getSelectedSkin();
         useStripWhitespace = ProjectData.instance().getStripWhitespace();
+        lazyAtlasImport = ProjectData.instance().getLazyAtlasImport();
         setFillParent(true);
         
         populate();
@@ -89,6 +91,7 @@ public class DialogSettings extends Dialog {
             }
             ProjectData.instance().setSelectedSkin(selectedSkin);
             ProjectData.instance().setStripWhitespace(useStripWhitespace);
+            ProjectData.instance().setLazyAtlasImport(lazyAtlasImport);
             Main.instance.clearUndoables();
         }
     }
@@ -159,10 +162,11 @@ public class DialogSettings extends Dialog {
         textButton.addListener(new ChangeListener() {
             @Override
             public void changed(ChangeListener.ChangeEvent event, Actor actor) {
-                Main.instance.showDialogLoading(() -> {
+                Main.instance.showDialogPacking(() -> {
                     try {
-                        AtlasData.getInstance().writeAtlas();
-                        AtlasData.getInstance().atlasCurrent = true;
+                        if (!AtlasData.getInstance().atlasCurrent) {
+                            AtlasData.getInstance().writeAtlas();
+                        }
                         PanelPreviewProperties.instance.produceAtlas();
                         PanelPreviewProperties.instance.render();
                     } catch (Exception e) {
@@ -230,6 +234,17 @@ public class DialogSettings extends Dialog {
         });
         t.add(checkBox).colspan(2);
         
+        t.row();
+        CheckBox lazyCheckBox = new CheckBox(" Write imported atlas regions only when needed", skin);
+        lazyCheckBox.setChecked(lazyAtlasImport);
+        lazyCheckBox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeListener.ChangeEvent event, Actor actor) {
+                lazyAtlasImport = lazyCheckBox.isChecked();
+            }
+        });
+        t.add(lazyCheckBox).colspan(2);
+        
         t.row();
         label = new Label("Max Number of Undos: ", skin);
         t.add(label).right().padTop(5.0f);
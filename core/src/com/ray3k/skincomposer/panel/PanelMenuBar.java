@@ -541,8 +541,7 @@ public class PanelMenuBar {
         if (ProjectData.instance().getSaveFile() != null) {
             
             Main.instance.showDialogLoading(() -> {
-                ProjectData.instance().save();
-                if (runnable != null) {
+                if (ProjectData.instance().save() && runnable != null) {
                     runnable.run();
                 }
             });
@@ -576,8 +575,7 @@ public class PanelMenuBar {
             File file = chooser.showSaveDialog();
             if (file != null) {
                 FileHandle fileHandle = new FileHandle(file);
-                ProjectData.instance().save(fileHandle);
-                if (runnable != null) {
+                if (ProjectData.instance().save(fileHandle) && runnable != null) {
                     runnable.run();
                 }
             }
@@ -612,8 +610,7 @@ public class PanelMenuBar {
                     }
                     
                     Main.instance.showDialogLoading(() -> {
-                        ProjectData.instance().save(files.first());
-                        if (runnable != null) {
+                        if (ProjectData.instance().save(files.first()) && runnable != null) {
                             runnable.run();
                         }
                     });
@@ -654,7 +651,7 @@ public class PanelMenuBar {
                     JsonData.getInstance().readFile(fileHandle);
                     PanelClassBar.instance.populate();
                     PanelStyleProperties.instance.populate(PanelClassBar.instance.getStyleSelectBox().getSelected());
-                    AtlasData.getInstance().atlasCurrent = false;
+                    AtlasData.getInstance().invalidateAtlas();
                     PanelPreviewProperties.instance.produceAtlas();
                     PanelPreviewProperties.instance.populate();
                 } catch (Exception e) {
@@ -695,7 +692,7 @@ public class PanelMenuBar {
                             JsonData.getInstance().readFile(files.first());
                             PanelClassBar.instance.populate();
                             PanelStyleProperties.instance.populate(PanelClassBar.instance.getStyleSelectBox().getSelected());
-                            AtlasData.getInstance().atlasCurrent = false;
+                            AtlasData.getInstance().invalidateAtlas();
                             PanelPreviewProperties.instance.produceAtlas();
                             PanelPreviewProperties.instance.populate();
                         } catch (Exception e) {
@@ -1278,7 +1278,6 @@ public class PanelPreviewProperties {
             
             if (!AtlasData.getInstance().atlasCurrent) {
                 AtlasData.getInstance().writeAtlas();
-                AtlasData.getInstance().atlasCurrent = true;
             }
             atlas = AtlasData.getInstance().getAtlas();
 
@@ -31,13 +31,22 @@ import java.awt.Desktop;
 import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinTask;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 
 public class Utils {
+    /**
+     * Images with at least twice this many pixels are processed on several
+     * threads.
+     */
+    private static final int PARALLEL_PIXELS = 128 * 128;
     public static String os;
     public static Color averageColor(FileHandle file) {
         Pixmap pixmap = new Pixmap(file);
@@ -52,28 +61,22 @@ public class Utils {
      * @return 
      */
     public static Color averageColor(Pixmap pixmap) {
-        Color temp = new Color();
-        float sumR = 0.0f;
-        float sumG = 0.0f;
-        float sumB = 0.0f;
-        int count = 0;
-        for (int y = 0; y < pixmap.getHeight(); y++) {
-            for (int x = 0; x < pixmap.getWidth(); x++) {
-                temp.set(pixmap.getPixel(x, y));
-                if (temp.a > 0) {
-                    sumR += temp.r;
-                    sumG += temp.g;
-                    sumB += temp.b;
-                    count++;
+        Pixmap source = getReadablePixmap(pixmap);
+        try {
+            ByteBuffer pixels = source.getPixels();
+            int width = source.getWidth();
+            int bytesPerPixel = getBytesPerPixel(source);
+            long[] sums = processRows(source.getHeight(), width, (int start, int end, long[] sum) -> {
+                for (int i = start * width * bytesPerPixel, n = end * width * bytesPerPixel; i < n; i += bytesPerPixel) {
+                    addPixel(pixels, i, bytesPerPixel, sum);
                 }
+            });
+            return sumsToColor(sums);
+        } finally {
+            if (source != pixmap) {
+                source.dispose();
             }
         }
-        
-        if (count == 0) {
-            return new Color(Color.BLACK);
-        } else {
-            return new Color(sumR / count, sumG / count, sumB / count, 1.0f);
-        }
     }
     
     public static Color averageEdgeColor(FileHandle file) {
@@ -92,22 +95,32 @@ public class Utils {
     }
     
     /**
+     * Multiplies the color channels of every pixel by color, keeping alpha.
      * Does not dispose pixmap
      * @param pixmap
      * @return 
      */
     public static Pixmap tintPixmap(Pixmap pixmap, Color color) {
-        Color tempColor = new Color();
-        for (int y = 0; y < pixmap.getHeight(); y++) {
-            for (int x = 0; x < pixmap.getWidth(); x++) {
-                tempColor.set(pixmap.getPixel(x, y));
-                float a = tempColor.a;
-                tempColor.mul(color);
-                tempColor.a = a;
-                pixmap.setColor(tempColor);
-                pixmap.drawPixel(x, y);
-                tempColor.set(pixmap.getPixel(x, y));
+        Pixmap target = getReadablePixmap(pixmap);
+        ByteBuffer pixels = target.getPixels();
+        int width = target.getWidth();
+        int bytesPerPixel = getBytesPerPixel(target);
+        
+        //16.16 fixed point, truncated like Color.rgba8888
+        int r = Math.max(0, Math.round(color.r * 65536));
+        int g = Math.max(0, Math.round(color.g * 65536));
+        int b = Math.max(0, Math.round(color.b * 65536));
+        processRows(target.getHeight(), width, (int start, int end, long[] sum) -> {
+            for (int i = start * width * bytesPerPixel, n = end * width * bytesPerPixel; i < n; i += bytesPerPixel) {
+                pixels.put(i, (byte) Math.min(255, (pixels.get(i) & 0xff) * r >>> 16));
+                pixels.put(i + 1, (byte) Math.min(255, (pixels.get(i + 1) & 0xff) * g >>> 16));
+                pixels.put(i + 2, (byte) Math.min(255, (pixels.get(i + 2) & 0xff) * b >>> 16));
             }
+        });
+        
+        if (target != pixmap) {
+            encodePixels(target, pixmap);
+            target.dispose();
         }
         return pixmap;
     }
@@ -124,75 +137,198 @@ public class Utils {
             border = 1;
         }
         
-        Color temp = new Color();
-        float sumR = 0.0f;
-        float sumG = 0.0f;
-        float sumB = 0.0f;
-        int count = 0;
-
-        //left edge
-        for (int y = border; y < pixmap.getHeight() - border; y++) {
-            for (int x = border; x < pixmap.getWidth() - border; x++) {
-                temp.set(pixmap.getPixel(x, y));
-                if (temp.a > 0) {
-                    sumR += temp.r;
-                    sumG += temp.g;
-                    sumB += temp.b;
-                    count++;
-                    break;
+        Pixmap source = getReadablePixmap(pixmap);
+        try {
+            ByteBuffer pixels = source.getPixels();
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int bytesPerPixel = getBytesPerPixel(source);
+            int first = border;
+            int rowStride = width * bytesPerPixel;
+            
+            //left and right edges, the first opaque pixel from each side of a row
+            long[] sums = processRows(height - 2 * border, width, (int start, int end, long[] sum) -> {
+                for (int y = first + start; y < first + end; y++) {
+                    int row = y * rowStride;
+                    for (int x = first; x < width - first; x++) {
+                        if (addPixel(pixels, row + x * bytesPerPixel, bytesPerPixel, sum)) {
+                            break;
+                        }
+                    }
+                    for (int x = width - 1 - first; x > first; x--) {
+                        if (addPixel(pixels, row + x * bytesPerPixel, bytesPerPixel, sum)) {
+                            break;
+                        }
+                    }
                 }
-            }
-        }
-        
-        //right edge
-        for (int y = border; y < pixmap.getHeight() - border; y++) {
-            for (int x = pixmap.getWidth() - 1 - border; x > border; x--) {
-                temp.set(pixmap.getPixel(x, y));
-                if (temp.a > 0) {
-                    sumR += temp.r;
-                    sumG += temp.g;
-                    sumB += temp.b;
-                    count++;
-                    break;
+            });
+            
+            //top and bottom edges, the first opaque pixel from each end of a column
+            long[] columnSums = processRows(width - 2 * border, height, (int start, int end, long[] sum) -> {
+                for (int x = first + start; x < first + end; x++) {
+                    int column = x * bytesPerPixel;
+                    for (int y = first; y < height - first; y++) {
+                        if (addPixel(pixels, y * rowStride + column, bytesPerPixel, sum)) {
+                            break;
+                        }
+                    }
+                    for (int y = height - 1 - first; y > first; y--) {
+                        if (addPixel(pixels, y * rowStride + column, bytesPerPixel, sum)) {
+                            break;
+                        }
+                    }
                 }
+            });
+            
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += columnSums[i];
             }
+            return sumsToColor(sums);
+        } finally {
+            if (source != pixmap) {
+                source.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Returns pixmap if its pixels can be read as RGBA8888 or RGB888 bytes,
+     * otherwise a RGBA8888 copy that the caller must dispose. The copy is
+     * read with getPixel, so the global Pixmap blending isn't touched.
+     */
+    private static Pixmap getReadablePixmap(Pixmap pixmap) {
+        if (pixmap.getFormat() == Pixmap.Format.RGBA8888 || pixmap.getFormat() == Pixmap.Format.RGB888) {
+            return pixmap;
         }
         
-        //top edge
-        for (int x = border; x < pixmap.getWidth() - border; x++) {
-            for (int y = border; y < pixmap.getHeight() - border; y++) {
-                temp.set(pixmap.getPixel(x, y));
-                if (temp.a > 0) {
-                    sumR += temp.r;
-                    sumG += temp.g;
-                    sumB += temp.b;
-                    count++;
-                    break;
+        Pixmap copy = new Pixmap(pixmap.getWidth(), pixmap.getHeight(), Pixmap.Format.RGBA8888);
+        ByteBuffer pixels = copy.getPixels();
+        int width = copy.getWidth();
+        processRows(copy.getHeight(), width, (int start, int end, long[] sum) -> {
+            for (int y = start, i = start * width * 4; y < end; y++) {
+                for (int x = 0; x < width; x++, i += 4) {
+                    int rgba = pixmap.getPixel(x, y);
+                    pixels.put(i, (byte) (rgba >>> 24));
+                    pixels.put(i + 1, (byte) (rgba >>> 16));
+                    pixels.put(i + 2, (byte) (rgba >>> 8));
+                    pixels.put(i + 3, (byte) rgba);
                 }
             }
-        }
-        
-        //bottom edge
-        for (int x = border; x < pixmap.getWidth() - border; x++) {
-            for (int y = pixmap.getHeight() - 1 - border; y > border; y--) {
-                temp.set(pixmap.getPixel(x, y));
-                if (temp.a > 0) {
-                    sumR += temp.r;
-                    sumG += temp.g;
-                    sumB += temp.b;
-                    count++;
-                    break;
+        });
+        return copy;
+    }
+    
+    /**
+     * Writes the RGBA8888 pixels of source into target, which has the same
+     * size, converting them to target's format the way drawPixmap does
+     * without blending. The global Pixmap blending isn't touched.
+     */
+    private static void encodePixels(Pixmap source, Pixmap target) {
+        ByteBuffer from = source.getPixels();
+        //gdx2d stores 16 bit pixels as native shorts
+        ByteBuffer to = target.getPixels().duplicate().order(ByteOrder.nativeOrder());
+        Pixmap.Format format = target.getFormat();
+        int width = source.getWidth();
+        processRows(source.getHeight(), width, (int start, int end, long[] sum) -> {
+            for (int i = start * width, n = end * width; i < n; i++) {
+                int r = from.get(i * 4) & 0xff;
+                int g = from.get(i * 4 + 1) & 0xff;
+                int b = from.get(i * 4 + 2) & 0xff;
+                int a = from.get(i * 4 + 3) & 0xff;
+                switch (format) {
+                    case Alpha:
+                    case Intensity:
+                        to.put(i, (byte) a);
+                        break;
+                    case LuminanceAlpha:
+                        to.putShort(i * 2, (short) (((int) (0.2126f * r + 0.7152 * g + 0.0722 * b) & 0xff) << 8 | a));
+                        break;
+                    case RGB565:
+                        to.putShort(i * 2, (short) (r >>> 3 << 11 | g >>> 2 << 5 | b >>> 3));
+                        break;
+                    case RGBA4444:
+                        to.putShort(i * 2, (short) (r >>> 4 << 12 | g >>> 4 << 8 | b >>> 4 << 4 | a >>> 4));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported format: " + format);
                 }
             }
+        });
+    }
+    
+    private static int getBytesPerPixel(Pixmap pixmap) {
+        return pixmap.getFormat() == Pixmap.Format.RGB888 ? 3 : 4;
+    }
+    
+    /**
+     * Adds the color channels of the pixel at index to sum and counts it, if
+     * it isn't fully transparent.
+     * @return True if the pixel was added.
+     */
+    private static boolean addPixel(ByteBuffer pixels, int index, int bytesPerPixel, long[] sum) {
+        if (bytesPerPixel == 4 && pixels.get(index + 3) == 0) {
+            return false;
         }
-        
-        if (count == 0) {
+        sum[0] += pixels.get(index) & 0xff;
+        sum[1] += pixels.get(index + 1) & 0xff;
+        sum[2] += pixels.get(index + 2) & 0xff;
+        sum[3]++;
+        return true;
+    }
+    
+    private static Color sumsToColor(long[] sums) {
+        if (sums[3] == 0) {
             return new Color(Color.BLACK);
         } else {
-            return new Color(sumR / count, sumG / count, sumB / count, 1.0f);
+            float divisor = 255.0f * sums[3];
+            return new Color(sums[0] / divisor, sums[1] / divisor, sums[2] / divisor, 1.0f);
         }
     }
     
+    /**
+     * Runs the kernel over blocks of rows. Large images are split across
+     * threads, each block gets its own sums which are added together.
+     * @param rows
+     * @param rowPixels Pixels in each row, used to decide whether to split.
+     * @param kernel
+     * @return The sums of all blocks.
+     */
+    private static long[] processRows(int rows, int rowPixels, RowKernel kernel) {
+        long[] sums = new long[4];
+        if (rows <= 0) {
+            return sums;
+        }
+        
+        int blocks = Math.min(rows, Math.min(Runtime.getRuntime().availableProcessors() * 4, (int) ((long) rows * rowPixels / PARALLEL_PIXELS)));
+        if (blocks <= 1) {
+            kernel.process(0, rows, sums);
+            return sums;
+        }
+        
+        long[][] blockSums = new long[blocks][4];
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            int block = i;
+            tasks.add(ForkJoinTask.adapt(() -> kernel.process(rows * block / blocks, rows * (block + 1) / blocks, blockSums[block])));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        
+        for (long[] blockSum : blockSums) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += blockSum[i];
+            }
+        }
+        return sums;
+    }
+    
+    private static interface RowKernel {
+        /**
+         * Processes rows from start up to but not including end.
+         * @param sum Red, green, blue and pixel count of this block.
+         */
+        public void process(int start, int end, long[] sum);
+    }
+    
     public static Color inverseColor(Color color) {
         return new Color(1 - color.r, 1 - color.g, 1 - color.b, color.a);
     }
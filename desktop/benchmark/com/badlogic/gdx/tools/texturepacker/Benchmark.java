@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.util.Arrays;
+
+/** Argument parsing and timing shared by the texture packer benchmarks. Each benchmark has a main method and is run with
+ * <code>gradlew desktop:benchmark -PbenchmarkClass=&lt;name&gt; -PbenchmarkArgs="..."</code>. The outputs the benchmarks
+ * compare are checked by the tests. */
+public class Benchmark {
+	/** Returns the argument at the index, or the default value if there are fewer arguments. */
+	static public int intArg (String[] args, int index, int defaultValue) {
+		return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+	}
+
+	/** Runs the task once unmeasured so the JIT has compiled it, then times it the given number of times.
+	 * @return The median time in nanoseconds. */
+	static public long time (int runs, Task task) {
+		runs = Math.max(1, runs);
+		task.setup();
+		task.run();
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			task.setup();
+			long start = System.nanoTime();
+			task.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+
+	static public abstract class Task {
+		/** Called before each run and not timed. */
+		public void setup () {
+		}
+
+		public abstract void run ();
+	}
+}
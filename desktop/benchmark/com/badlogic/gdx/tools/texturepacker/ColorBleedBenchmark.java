@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.awt.image.BufferedImage;
+
+/** Compares {@link ColorBleedEffect#processImage(BufferedImage, int)} with
+ * {@link ColorBleedEffect#processImageParallel(BufferedImage, int)} on a generated page. {@link ColorBleedEffectTest} checks
+ * that both give the same pixels.
+ * <p>
+ * Usage: [size] [runs] */
+public class ColorBleedBenchmark {
+	static public void main (String[] args) throws Exception {
+		int size = Benchmark.intArg(args, 0, 4096);
+		int runs = Benchmark.intArg(args, 1, 5);
+
+		final BufferedImage page = ColorBleedEffectTest.createPage(size);
+		System.out.println("Page: " + size + "x" + size + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		long serialTime = Benchmark.time(runs, new Benchmark.Task() {
+			public void run () {
+				new ColorBleedEffect().processImage(page, 2);
+			}
+		});
+		long parallelTime = Benchmark.time(runs, new Benchmark.Task() {
+			public void run () {
+				new ColorBleedEffect().processImageParallel(page, 2);
+			}
+		});
+
+		System.out.println("Serial:   " + serialTime / 1000000 + " ms");
+		System.out.println("Parallel: " + parallelTime / 1000000 + " ms");
+	}
+}
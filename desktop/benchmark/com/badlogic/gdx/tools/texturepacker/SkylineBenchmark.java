@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Packer;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+import com.badlogic.gdx.utils.Array;
+
+/** Compares {@link SkylinePacker} with {@link MaxRectsPacker} on generated UI skins: mostly small square icons plus wider
+ * nine-patch backgrounds, packed with the settings used for previews but without power of two pages. Prints the median pack
+ * time, page count and occupancy, the packed area divided by the total page area. {@link SkylinePackerTest} checks the skyline
+ * layouts.
+ * <p>
+ * Usage: [runs] [image counts...] */
+public class SkylineBenchmark {
+	static public void main (String[] args) throws Exception {
+		int runs = Benchmark.intArg(args, 0, 3);
+		int[] counts = {250, 1000, 2000};
+		if (args.length > 1) {
+			counts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				counts[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		Settings settings = SkylinePackerTest.createSettings();
+		System.out.println("Packer     Images   Time   Pages  Occupancy");
+		for (int count : counts) {
+			Array<Rect> rects = SkylinePackerTest.createRects(count);
+			run("MaxRects", settings, rects, runs);
+			run("Skyline", settings, rects, runs);
+		}
+	}
+
+	static private void run (final String name, final Settings settings, final Array<Rect> rects, int runs) {
+		final Array<Page>[] pages = new Array[1];
+		long time = Benchmark.time(runs, new Benchmark.Task() {
+			Array<Rect> input;
+			Packer packer;
+
+			public void setup () {
+				input = SkylinePackerTest.copy(rects);
+				// Otherwise MaxRects would reuse the layout of the previous run.
+				MaxRectsPacker.clearLayoutCache();
+				packer = name.equals("Skyline") ? new SkylinePacker(settings) : new MaxRectsPacker(settings);
+			}
+
+			public void run () {
+				pages[0] = packer.pack(input);
+			}
+		});
+
+		long usedArea = 0, pageArea = 0;
+		for (Page page : pages[0]) {
+			for (Rect rect : page.outputRects)
+				usedArea += (long)rect.width * rect.height;
+			pageArea += (long)page.width * page.height;
+		}
+		System.out.println(String.format("%-10s %6d %5d ms %6d %9.1f%%", name, rects.size, time / 1000000, pages[0].size,
+			usedArea * 100f / pageArea));
+	}
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.awt.image.BufferedImage;
+
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+
+/** Compares {@link ImageProcessor#stripWhitespace(BufferedImage)} with the previous per-pixel scan on the same generated 4 byte
+ * ABGR images. {@link ImageProcessorTest} checks that both find the same bounds.
+ * <p>
+ * Usage: [size] [count] [runs] */
+public class StripWhitespaceBenchmark {
+	static public void main (String[] args) throws Exception {
+		int size = Benchmark.intArg(args, 0, 256);
+		final int count = Benchmark.intArg(args, 1, 500);
+		int runs = Benchmark.intArg(args, 2, 5);
+
+		final Settings settings = ImageProcessorTest.createSettings();
+		final ImageProcessor imageProcessor = new ImageProcessor(settings);
+		final BufferedImage[] images = ImageProcessorTest.createImages(size, count);
+		System.out.println("Images: " + count + " of " + size + "x" + size);
+
+		long referenceTime = Benchmark.time(runs, new Benchmark.Task() {
+			public void run () {
+				for (int i = 0; i < count; i++)
+					ImageProcessorTest.stripWhitespacePerPixel(images[i], settings.alphaThreshold);
+			}
+		});
+		long bulkTime = Benchmark.time(runs, new Benchmark.Task() {
+			public void run () {
+				for (int i = 0; i < count; i++)
+					imageProcessor.stripWhitespace(images[i]);
+			}
+		});
+
+		System.out.println("Per pixel: " + referenceTime / 1000000 + " ms");
+		System.out.println("Bulk:      " + bulkTime / 1000000 + " ms");
+	}
+}
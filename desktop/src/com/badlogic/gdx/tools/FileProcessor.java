@@ -20,9 +20,17 @@ import com.badlogic.gdx.utils.Array;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.regex.Pattern;
 
@@ -184,42 +192,96 @@ public class FileProcessor {
 		}
 
 		for (File file : files) {
-			if (file.isFile()) {
-				if (inputRegex.size > 0) {
-					boolean found = false;
-					for (Pattern pattern : inputRegex) {
-						if (pattern.matcher(file.getName()).matches()) {
-							found = true;
-							continue;
-						}
-					}
-					if (!found) continue;
-				}
+			if (file.isFile()) addFile(file, outputRoot, outputDir, dirToEntries, depth);
+			if (recursive && file.isDirectory()) {
+				File subdir = outputDir.getPath().length() == 0 ? new File(file.getName()) : new File(outputDir, file.getName());
+				walk(file, outputRoot, subdir, dirToEntries, depth + 1);
+			}
+		}
+	}
 
-				File dir = file.getParentFile();
-				if (inputFilter != null && !inputFilter.accept(dir, file.getName())) continue;
+	/** Adds the files under the directory using a single tree walk, which gets each file's attributes with the directory listing
+	 * instead of querying them per file. Directories are added in the order they are first reached, as when recursing with
+	 * {@link File#listFiles(FilenameFilter)}, and directories with no files or subdirectories are not added. */
+	private void walk (final File root, final File outputRoot, File outputDir, final LinkedHashMap<File, ArrayList<Entry>> dirToEntries,
+		final int depth) {
+		final ArrayList<File> outputDirs = new ArrayList();
+		outputDirs.add(outputDir);
+		try {
+			Files.walkFileTree(root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				public FileVisitResult preVisitDirectory (Path path, BasicFileAttributes attributes) {
+					if (outputDirs.size() == 1 && path.equals(root.toPath())) return FileVisitResult.CONTINUE;
+					File dir = new File(path.getParent().toString());
+					String name = path.getFileName().toString();
+					if (inputFilter != null && !inputFilter.accept(dir, name)) return FileVisitResult.SKIP_SUBTREE;
+					addDir(dir, dirToEntries);
+					File outputDir = outputDirs.get(outputDirs.size() - 1);
+					outputDirs.add(outputDir.getPath().length() == 0 ? new File(name) : new File(outputDir, name));
+					return FileVisitResult.CONTINUE;
+				}
 
-				String outputName = file.getName();
-				if (outputSuffix != null) outputName = outputName.replaceAll("(.*)\\..*", "$1") + outputSuffix;
+				public FileVisitResult postVisitDirectory (Path path, IOException ex) {
+					if (outputDirs.size() > 1) outputDirs.remove(outputDirs.size() - 1);
+					return FileVisitResult.CONTINUE;
+				}
 
-				Entry entry = new Entry();
-				entry.depth = depth;
-				entry.inputFile = file;
-				entry.outputDir = outputDir;
+				public FileVisitResult visitFile (Path path, BasicFileAttributes attributes) {
+					File dir = new File(path.getParent().toString());
+					String name = path.getFileName().toString();
+					if (inputFilter != null && !inputFilter.accept(dir, name)) return FileVisitResult.CONTINUE;
+					addDir(dir, dirToEntries);
+					if (attributes.isRegularFile()) {
+						addFile(new File(dir, name), outputRoot, outputDirs.get(outputDirs.size() - 1), dirToEntries,
+							depth + outputDirs.size() - 1);
+					}
+					return FileVisitResult.CONTINUE;
+				}
 
-				if (flattenOutput) {
-					entry.outputFile = new File(outputRoot, outputName);
-				} else {
-					entry.outputFile = new File(outputDir, outputName);
+				public FileVisitResult visitFileFailed (Path path, IOException ex) {
+					// Unreadable files and symbolic link cycles are skipped.
+					return FileVisitResult.CONTINUE;
 				}
+			});
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading directory: " + root.getAbsolutePath(), ex);
+		}
+	}
 
-				dirToEntries.get(dir).add(entry);
-			}
-			if (recursive && file.isDirectory()) {
-				File subdir = outputDir.getPath().length() == 0 ? new File(file.getName()) : new File(outputDir, file.getName());
-				process(file.listFiles(inputFilter), outputRoot, subdir, dirToEntries, depth + 1);
+	private void addDir (File dir, LinkedHashMap<File, ArrayList<Entry>> dirToEntries) {
+		if (!dirToEntries.containsKey(dir)) dirToEntries.put(dir, new ArrayList());
+	}
+
+	private void addFile (File file, File outputRoot, File outputDir, LinkedHashMap<File, ArrayList<Entry>> dirToEntries,
+		int depth) {
+		if (inputRegex.size > 0) {
+			boolean found = false;
+			for (Pattern pattern : inputRegex) {
+				if (pattern.matcher(file.getName()).matches()) {
+					found = true;
+					break;
+				}
 			}
+			if (!found) return;
 		}
+
+		File dir = file.getParentFile();
+		if (inputFilter != null && !inputFilter.accept(dir, file.getName())) return;
+
+		String outputName = file.getName();
+		if (outputSuffix != null) outputName = outputName.replaceAll("(.*)\\..*", "$1") + outputSuffix;
+
+		Entry entry = new Entry();
+		entry.depth = depth;
+		entry.inputFile = file;
+		entry.outputDir = outputDir;
+
+		if (flattenOutput) {
+			entry.outputFile = new File(outputRoot, outputName);
+		} else {
+			entry.outputFile = new File(outputDir, outputName);
+		}
+
+		dirToEntries.get(dir).add(entry);
 	}
 
 	/** Called with each input file. */
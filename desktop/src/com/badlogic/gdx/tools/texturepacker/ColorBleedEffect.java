@@ -19,7 +19,9 @@ package com.badlogic.gdx.tools.texturepacker;
 import com.badlogic.gdx.tools.texturepacker.ColorBleedEffect.Mask.MaskIterator;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinTask;
 
 /** @author Ruben Garat
  * @author Ariel Coppes
@@ -52,6 +54,57 @@ public class ColorBleedEffect {
 		return processedImage;
 	}
 
+	/** Gives the same result as {@link #processImage(BufferedImage, int)}, but splits the image into bands of rows that are
+	 * processed on the fork-join pool. An iteration only reads pixels that were real data before it started, so each band can
+	 * read the rows around it without locking. Pixels filled by an iteration are marked as real data once all bands finish. */
+	public BufferedImage processImageParallel (BufferedImage image, int maxIterations) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+
+		BufferedImage processedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		final int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+		final int[] mask = new int[rgb.length];
+
+		int bandCount = Math.min(height, Runtime.getRuntime().availableProcessors() * 4);
+		final Band[] bands = new Band[bandCount];
+		for (int i = 0; i < bandCount; i++)
+			bands[i] = new Band(rgb, mask, width, height, height * i / bandCount, height * (i + 1) / bandCount);
+
+		invokeAll(bands, Band.INIT);
+		int iterations = 0;
+		int lastPending = -1;
+		int pending = getPendingSize(bands);
+		while (pending > 0 && pending != lastPending && iterations < maxIterations) {
+			lastPending = pending;
+			invokeAll(bands, Band.ITERATE);
+			invokeAll(bands, Band.COMMIT);
+			pending = getPendingSize(bands);
+			iterations++;
+		}
+
+		processedImage.setRGB(0, 0, width, height, rgb, 0, width);
+		return processedImage;
+	}
+
+	static private void invokeAll (Band[] bands, final int pass) {
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList(bands.length);
+		for (final Band band : bands) {
+			tasks.add(ForkJoinTask.adapt(new Runnable() {
+				public void run () {
+					band.run(pass);
+				}
+			}));
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+
+	static private int getPendingSize (Band[] bands) {
+		int pending = 0;
+		for (Band band : bands)
+			pending += band.pendingSize;
+		return pending;
+	}
+
 	private void executeIteration (int[] rgb, Mask mask, int width, int height) {
 		MaskIterator iterator = mask.new MaskIterator();
 		while (iterator.hasNext()) {
@@ -92,6 +145,89 @@ public class ColorBleedEffect {
 		return y * width + x;
 	}
 
+	/** A range of rows with its own pending list, used by {@link ColorBleedEffect#processImageParallel(BufferedImage, int)}. */
+	static class Band {
+		static final int INIT = 0, ITERATE = 1, COMMIT = 2;
+
+		final int[] rgb, mask;
+		final int width, height, startRow, endRow;
+		int[] pending, changing;
+		int pendingSize, changingSize;
+
+		Band (int[] rgb, int[] mask, int width, int height, int startRow, int endRow) {
+			this.rgb = rgb;
+			this.mask = mask;
+			this.width = width;
+			this.height = height;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		void run (int pass) {
+			if (pass == INIT)
+				init();
+			else if (pass == ITERATE)
+				iterate();
+			else
+				commit();
+		}
+
+		void init () {
+			int start = startRow * width, end = endRow * width;
+			pending = new int[end - start];
+			changing = new int[end - start];
+			for (int i = start; i < end; i++) {
+				if ((rgb[i] >>> 24) == 0) {
+					mask[i] = TO_PROCESS;
+					pending[pendingSize++] = i;
+				} else
+					mask[i] = REALDATA;
+			}
+		}
+
+		void iterate () {
+			int[] rgb = this.rgb, mask = this.mask;
+			int width = this.width, height = this.height;
+			for (int i = 0; i < pendingSize;) {
+				int pixelIndex = pending[i];
+				int x = pixelIndex % width;
+				int y = pixelIndex / width;
+				int r = 0, g = 0, b = 0;
+				int count = 0;
+
+				for (int ii = 0, n = offsets.length; ii < n; ii++) {
+					int[] offset = offsets[ii];
+					int column = x + offset[0];
+					int row = y + offset[1];
+
+					if (column < 0 || column >= width || row < 0 || row >= height) continue;
+
+					int currentPixelIndex = row * width + column;
+					if (mask[currentPixelIndex] == REALDATA) {
+						int argb = rgb[currentPixelIndex];
+						r += (argb >> 16) & 0xFF;
+						g += (argb >> 8) & 0xFF;
+						b += argb & 0xFF;
+						count++;
+					}
+				}
+
+				if (count != 0) {
+					rgb[pixelIndex] = ((r / count) << 16) | ((g / count) << 8) | (b / count);
+					changing[changingSize++] = pixelIndex;
+					pending[i] = pending[--pendingSize];
+				} else
+					i++;
+			}
+		}
+
+		void commit () {
+			for (int i = 0; i < changingSize; i++)
+				mask[changing[i]] = REALDATA;
+			changingSize = 0;
+		}
+	}
+
 	static class Mask {
 		int[] data, pending, changing;
 		int pendingSize, changingSize;
@@ -16,8 +16,11 @@
 
 package com.badlogic.gdx.tools.texturepacker;
 
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Packer;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Phase;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
 import com.badlogic.gdx.utils.Array;
@@ -33,6 +36,10 @@ public class GridPacker implements Packer {
 	}
 
 	public Array<Page> pack (Array<Rect> inputRects) {
+		return pack(ProgressListener.none, new CancelToken(), inputRects);
+	}
+
+	public Array<Page> pack (ProgressListener progress, CancelToken cancel, Array<Rect> inputRects) {
 		if (!settings.silent) System.out.print("Packing");
 
 		int cellWidth = 0, cellHeight = 0;
@@ -47,9 +54,12 @@ public class GridPacker implements Packer {
 		inputRects.reverse();
 
 		Array<Page> pages = new Array();
+		int total = inputRects.size;
 		while (inputRects.size > 0) {
+			cancel.checkCanceled();
 			Page result = packPage(inputRects, cellWidth, cellHeight);
 			pages.add(result);
+			progress.progress(Phase.layout, total - inputRects.size, total);
 		}
 		return pages;
 	}
@@ -17,36 +17,53 @@
 package com.badlogic.gdx.tools.texturepacker;
 
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Alias;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CanceledException;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.InputImage;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Phase;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
 import com.badlogic.gdx.utils.Array;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
 
+import org.imgscalr.Scalr;
+import org.imgscalr.Scalr.Method;
+import org.imgscalr.Scalr.Mode;
+
 public class ImageProcessor {
 	static private final BufferedImage emptyImage = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
 	static private Pattern indexPattern = Pattern.compile("(.+)_(\\d+)$");
+	static private final int scaleCacheMaxPixels = 16 * 1024 * 1024;
+	static private final LinkedHashMap<ScaleKey, ScaledImage> scaleCache = new LinkedHashMap(16, 0.75f, true);
+	static private long scaleCachePixels;
 
 	private String rootPath;
 	private final Settings settings;
-	private final HashMap<String, Rect> crcs = new HashMap();
+	private final HashMap<Long, Array<Rect>> crcs = new HashMap();
 	private final Array<Rect> rects = new Array();
 	private float scale = 1;
+	private ImageSpill spill;
 
 	/** @param rootDir Used to strip the root directory prefix from image file names, can be null. */
 	public ImageProcessor (File rootDir, Settings settings) {
@@ -62,8 +79,93 @@ public class ImageProcessor {
 		this(null, settings);
 	}
 
-	/** The image won't be kept in-memory during packing if {@link Settings#limitMemory} is true. */
+	/** The image won't be kept in-memory during packing if {@link Settings#limitMemory} is true. Instead the processed pixels are
+	 * stored in a temporary file until {@link #clear()}. */
 	public void addImage (File file) {
+		BufferedImage image = readImage(file);
+		Rect rect = addImage(image, getName(file));
+		if (rect != null && settings.limitMemory) rect.spillImage(getSpill());
+	}
+
+	/** The image will be kept in-memory during packing.
+	 * @see #addImage(File) */
+	public Rect addImage (BufferedImage image, String name) {
+		Rect rect = processImage(image, name);
+		return addRect(rect, name, rect != null && settings.alias ? hash(rect.getImage(this)) : null);
+	}
+
+	/** Decodes, processes and hashes the images, on a fork-join pool if {@link Settings#multithreaded} is true. Rects are added
+	 * and aliases resolved in input order afterward, so the result is the same as adding each image with {@link #addImage(File)}
+	 * or {@link #addImage(BufferedImage, String)}.
+	 * @throws CanceledException if the token is canceled before all images are added. */
+	void addImages (Array<InputImage> inputImages, final ProgressListener progress, final CancelToken cancel) {
+		progress.start(Phase.ingest);
+		long start = System.nanoTime();
+		final int total = inputImages.size;
+		Array<ProcessedImage> processedImages = new Array(total);
+		if (settings.multithreaded) {
+			final AtomicInteger completed = new AtomicInteger();
+			ArrayList<Callable<ProcessedImage>> tasks = new ArrayList(total);
+			for (final InputImage inputImage : inputImages) {
+				tasks.add(new Callable<ProcessedImage>() {
+					public ProcessedImage call () {
+						cancel.checkCanceled();
+						ProcessedImage processed = processInput(inputImage);
+						progress.progress(Phase.ingest, completed.incrementAndGet(), total);
+						return processed;
+					}
+				});
+			}
+
+			for (Future<ProcessedImage> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				try {
+					processedImages.add(future.get());
+				} catch (InterruptedException ex) {
+					throw new RuntimeException("Interrupted while processing images.", ex);
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+					throw new RuntimeException("Error processing images.", ex.getCause());
+				}
+			}
+		} else {
+			for (int i = 0; i < total; i++) {
+				cancel.checkCanceled();
+				processedImages.add(processInput(inputImages.get(i)));
+				progress.progress(Phase.ingest, i + 1, total);
+			}
+		}
+		progress.end(Phase.ingest, System.nanoTime() - start);
+
+		progress.start(Phase.alias);
+		start = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			cancel.checkCanceled();
+			ProcessedImage processed = processedImages.get(i);
+			addRect(processed.rect, processed.name, processed.crc);
+			progress.progress(Phase.alias, i + 1, total);
+		}
+		progress.end(Phase.alias, System.nanoTime() - start);
+	}
+
+	private ProcessedImage processInput (InputImage inputImage) {
+		ProcessedImage processed = new ProcessedImage();
+		BufferedImage image;
+		if (inputImage.file != null) {
+			image = readImage(inputImage.file);
+			processed.name = getName(inputImage.file);
+		} else {
+			image = inputImage.image;
+			processed.name = inputImage.name;
+		}
+		processed.rect = processImage(image, processed.name);
+		if (processed.rect != null) {
+			if (settings.alias) processed.crc = hash(processed.rect.getImage(this));
+			if (inputImage.file != null && settings.limitMemory) processed.rect.spillImage(getSpill());
+		}
+		return processed;
+	}
+
+	private BufferedImage readImage (File file) {
 		BufferedImage image;
 		try {
 			image = ImageIO.read(file);
@@ -71,7 +173,10 @@ public class ImageProcessor {
 			throw new RuntimeException("Error reading image: " + file, ex);
 		}
 		if (image == null) throw new RuntimeException("Unable to read image: " + file);
+		return image;
+	}
 
+	private String getName (File file) {
 		String name = file.getAbsolutePath().replace('\\', '/');
 
 		// Strip root dir off front of image path.
@@ -83,30 +188,33 @@ public class ImageProcessor {
 		// Strip extension.
 		int dotIndex = name.lastIndexOf('.');
 		if (dotIndex != -1) name = name.substring(0, dotIndex);
-
-		Rect rect = addImage(image, name);
-		if (rect != null && settings.limitMemory) rect.unloadImage(file);
+		return name;
 	}
 
-	/** The image will be kept in-memory during packing.
-	 * @see #addImage(File) */
-	public Rect addImage (BufferedImage image, String name) {
-		Rect rect = processImage(image, name);
-
+	/** @param crc The hash of the rect's image, or null if aliasing is disabled. */
+	private Rect addRect (Rect rect, String name, Long crc) {
 		if (rect == null) {
 			if(!settings.silent) System.out.println("Ignoring blank input image: " + name);
 			return null;
 		}
 
-		if (settings.alias) {
-			String crc = hash(rect.getImage(this));
-			Rect existing = crcs.get(crc);
-			if (existing != null) {
-				if (!settings.silent) System.out.println(rect.name + " (alias of " + existing.name + ")");
-				existing.aliases.add(new Alias(rect));
-				return null;
+		if (crc != null) {
+			Array<Rect> existingRects = crcs.get(crc);
+			if (existingRects == null) {
+				existingRects = new Array();
+				crcs.put(crc, existingRects);
+			} else {
+				// The hash isn't cryptographic, so compare the pixels before aliasing.
+				BufferedImage image = rect.getImage(this);
+				for (int i = 0, n = existingRects.size; i < n; i++) {
+					Rect existing = existingRects.get(i);
+					if (!samePixels(existing.getImage(this), image)) continue;
+					if (!settings.silent) System.out.println(rect.name + " (alias of " + existing.name + ")");
+					existing.aliases.add(new Alias(rect));
+					return null;
+				}
 			}
-			crcs.put(crc, rect);
+			existingRects.add(rect);
 		}
 
 		rects.add(rect);
@@ -121,9 +229,20 @@ public class ImageProcessor {
 		return rects;
 	}
 
+	/** Returns the spill that holds the processed images of unloaded rects, creating it if necessary. */
+	synchronized ImageSpill getSpill () {
+		if (spill == null) spill = new ImageSpill();
+		return spill;
+	}
+
+	/** Removes the images and deletes the spill, so rects from this processor can no longer provide their image. */
 	public void clear () {
 		rects.clear();
 		crcs.clear();
+		if (spill != null) {
+			spill.close();
+			spill = null;
+		}
 	}
 
 	/** Returns a rect for the image describing the texture region to be packed, or null if the image should not be packed. */
@@ -156,19 +275,9 @@ public class ImageProcessor {
 
 		// Scale image.
 		if (scale != 1) {
-			int originalWidth = width, originalHeight = height;
 			width = Math.round(width * scale);
 			height = Math.round(height * scale);
-			BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-			if (scale < 1) {
-				newImage.getGraphics().drawImage(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
-			} else {
-				Graphics2D g = (Graphics2D)newImage.getGraphics();
-				g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-				g.drawImage(image, 0, 0, width, height, null);
-			}
-			image = newImage;
+			image = scaleImage(image, width, height);
 		}
 
 		if (isPatch) {
@@ -197,59 +306,35 @@ public class ImageProcessor {
 		return rect;
 	}
 
-	/** Strips whitespace and returns the rect, or null if the image should be ignored. */
-	private Rect stripWhitespace (BufferedImage source) {
+	/** Strips whitespace and returns the rect, or null if the image should be ignored. The alpha samples are read directly from
+	 * the 4 byte ABGR raster that {@link #processImage(BufferedImage, String)} converts every image to. */
+	Rect stripWhitespace (BufferedImage source) {
 		WritableRaster alphaRaster = source.getAlphaRaster();
 		if (alphaRaster == null || (!settings.stripWhitespaceX && !settings.stripWhitespaceY))
 			return new Rect(source, 0, 0, source.getWidth(), source.getHeight(), false);
-		final byte[] a = new byte[1];
+		PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)alphaRaster.getSampleModel();
+		DataBufferByte buffer = (DataBufferByte)alphaRaster.getDataBuffer();
+		byte[] alpha = buffer.getData();
+		int pixelStride = sampleModel.getPixelStride(), scanlineStride = sampleModel.getScanlineStride();
+		int offset = buffer.getOffset() + sampleModel.getBandOffsets()[0]
+			- alphaRaster.getSampleModelTranslateY() * scanlineStride - alphaRaster.getSampleModelTranslateX() * pixelStride;
+		int width = source.getWidth(), threshold = settings.alphaThreshold;
 		int top = 0;
 		int bottom = source.getHeight();
 		if (settings.stripWhitespaceX) {
-			outer:
-			for (int y = 0; y < source.getHeight(); y++) {
-				for (int x = 0; x < source.getWidth(); x++) {
-					alphaRaster.getDataElements(x, y, a);
-					int alpha = a[0];
-					if (alpha < 0) alpha += 256;
-					if (alpha > settings.alphaThreshold) break outer;
-				}
+			while (top < bottom && isBlank(alpha, offset + top * scanlineStride, pixelStride, width, threshold))
 				top++;
-			}
-			outer:
-			for (int y = source.getHeight(); --y >= top;) {
-				for (int x = 0; x < source.getWidth(); x++) {
-					alphaRaster.getDataElements(x, y, a);
-					int alpha = a[0];
-					if (alpha < 0) alpha += 256;
-					if (alpha > settings.alphaThreshold) break outer;
-				}
+			while (bottom > top && isBlank(alpha, offset + (bottom - 1) * scanlineStride, pixelStride, width, threshold))
 				bottom--;
-			}
 		}
 		int left = 0;
-		int right = source.getWidth();
+		int right = width;
 		if (settings.stripWhitespaceY) {
-			outer:
-			for (int x = 0; x < source.getWidth(); x++) {
-				for (int y = top; y < bottom; y++) {
-					alphaRaster.getDataElements(x, y, a);
-					int alpha = a[0];
-					if (alpha < 0) alpha += 256;
-					if (alpha > settings.alphaThreshold) break outer;
-				}
+			int columnOffset = offset + top * scanlineStride, columnHeight = bottom - top;
+			while (left < right && isBlank(alpha, columnOffset + left * pixelStride, scanlineStride, columnHeight, threshold))
 				left++;
-			}
-			outer:
-			for (int x = source.getWidth(); --x >= left;) {
-				for (int y = top; y < bottom; y++) {
-					alphaRaster.getDataElements(x, y, a);
-					int alpha = a[0];
-					if (alpha < 0) alpha += 256;
-					if (alpha > settings.alphaThreshold) break outer;
-				}
+			while (right > left && isBlank(alpha, columnOffset + (right - 1) * pixelStride, scanlineStride, columnHeight, threshold))
 				right--;
-			}
 		}
 		int newWidth = right - left;
 		int newHeight = bottom - top;
@@ -262,6 +347,13 @@ public class ImageProcessor {
 		return new Rect(source, left, top, newWidth, newHeight, false);
 	}
 
+	/** Returns true if none of the count alpha samples starting at offset and spaced by stride is above the threshold. */
+	static private boolean isBlank (byte[] alpha, int offset, int stride, int count, int threshold) {
+		for (int i = 0; i < count; i++, offset += stride)
+			if ((alpha[offset] & 0xff) > threshold) return false;
+		return true;
+	}
+
 	static private String splitError (int x, int y, int[] rgba, String name) {
 		throw new RuntimeException("Invalid " + name + " ninepatch split pixel at " + x + ", " + y + ", rgba: " + rgba[0] + ", "
 			+ rgba[1] + ", " + rgba[2] + ", " + rgba[3]);
@@ -271,15 +363,16 @@ public class ImageProcessor {
 	 * has left, right, top, bottom. */
 	private int[] getSplits (BufferedImage image, String name) {
 		WritableRaster raster = image.getRaster();
+		int[] top = getRow(raster, 0), left = getColumn(raster, 0);
 
-		int startX = getSplitPoint(raster, name, 1, 0, true, true);
-		int endX = getSplitPoint(raster, name, startX, 0, false, true);
-		int startY = getSplitPoint(raster, name, 0, 1, true, false);
-		int endY = getSplitPoint(raster, name, 0, startY, false, false);
+		int startX = getSplitPoint(top, name, 1, 0, true, true);
+		int endX = getSplitPoint(top, name, startX, 0, false, true);
+		int startY = getSplitPoint(left, name, 1, 0, true, false);
+		int endY = getSplitPoint(left, name, startY, 0, false, false);
 
 		// Ensure pixels after the end are not invalid.
-		getSplitPoint(raster, name, endX + 1, 0, true, true);
-		getSplitPoint(raster, name, 0, endY + 1, true, false);
+		getSplitPoint(top, name, endX + 1, 0, true, true);
+		getSplitPoint(left, name, endY + 1, 0, true, false);
 
 		// No splits, or all splits.
 		if (startX == 0 && endX == 0 && startY == 0 && endY == 0) return null;
@@ -317,19 +410,20 @@ public class ImageProcessor {
 
 		int bottom = raster.getHeight() - 1;
 		int right = raster.getWidth() - 1;
+		int[] bottomRow = getRow(raster, bottom), rightColumn = getColumn(raster, right);
 
-		int startX = getSplitPoint(raster, name, 1, bottom, true, true);
-		int startY = getSplitPoint(raster, name, right, 1, true, false);
+		int startX = getSplitPoint(bottomRow, name, 1, bottom, true, true);
+		int startY = getSplitPoint(rightColumn, name, 1, right, true, false);
 
 		// No need to hunt for the end if a start was never found.
 		int endX = 0;
 		int endY = 0;
-		if (startX != 0) endX = getSplitPoint(raster, name, startX + 1, bottom, false, true);
-		if (startY != 0) endY = getSplitPoint(raster, name, right, startY + 1, false, false);
+		if (startX != 0) endX = getSplitPoint(bottomRow, name, startX + 1, bottom, false, true);
+		if (startY != 0) endY = getSplitPoint(rightColumn, name, startY + 1, right, false, false);
 
 		// Ensure pixels after the end are not invalid.
-		getSplitPoint(raster, name, endX + 1, bottom, true, true);
-		getSplitPoint(raster, name, right, endY + 1, true, false);
+		getSplitPoint(bottomRow, name, endX + 1, bottom, true, true);
+		getSplitPoint(rightColumn, name, endY + 1, right, true, false);
 
 		// No pads.
 		if (startX == 0 && endX == 0 && startY == 0 && endY == 0) {
@@ -378,70 +472,149 @@ public class ImageProcessor {
 		return pads;
 	}
 
-	/** Hunts for the start or end of a sequence of split pixels. Begins searching at (startX, startY) then follows along the x or y
-	 * axis (depending on value of xAxis) for the first non-transparent pixel if startPoint is true, or the first transparent pixel
-	 * if startPoint is false. Returns 0 if none found, as 0 is considered an invalid split point being in the outer border which
-	 * will be stripped. */
-	static private int getSplitPoint (WritableRaster raster, String name, int startX, int startY, boolean startPoint, boolean xAxis) {
-		int[] rgba = new int[4];
+	/** Returns the RGBA samples of a row of the raster. */
+	static private int[] getRow (WritableRaster raster, int y) {
+		return raster.getPixels(0, y, raster.getWidth(), 1, (int[])null);
+	}
+
+	/** Returns the RGBA samples of a column of the raster. */
+	static private int[] getColumn (WritableRaster raster, int x) {
+		return raster.getPixels(x, 0, 1, raster.getHeight(), (int[])null);
+	}
 
-		int next = xAxis ? startX : startY;
-		int end = xAxis ? raster.getWidth() : raster.getHeight();
+	/** Hunts for the start or end of a sequence of split pixels in a border row or column, see {@link #getRow(WritableRaster, int)}
+	 * and {@link #getColumn(WritableRaster, int)}. Begins searching at start then follows the border for the first
+	 * non-transparent pixel if startPoint is true, or the first transparent pixel if startPoint is false. Returns 0 if none found,
+	 * as 0 is considered an invalid split point being in the outer border which will be stripped.
+	 * @param border The pixels of the border, 4 RGBA samples each.
+	 * @param position The y of the row or x of the column, used for errors.
+	 * @param xAxis True if the border is a row. */
+	static private int getSplitPoint (int[] border, String name, int start, int position, boolean startPoint, boolean xAxis) {
+		int end = border.length / 4;
 		int breakA = startPoint ? 255 : 0;
+		for (int next = start; next < end; next++) {
+			int i = next * 4;
+			int r = border[i], g = border[i + 1], b = border[i + 2], a = border[i + 3];
+			if (a == breakA) return next;
+
+			if (!startPoint && (r != 0 || g != 0 || b != 0 || a != 255)) {
+				if (xAxis)
+					splitError(next, position, new int[] {r, g, b, a}, name);
+				else
+					splitError(position, next, new int[] {r, g, b, a}, name);
+			}
+		}
 
-		int x = startX;
-		int y = startY;
-		while (next != end) {
-			if (xAxis)
-				x = next;
-			else
-				y = next;
+		return 0;
+	}
 
-			raster.getPixel(x, y, rgba);
-			if (rgba[3] == breakA) return next;
+	/** Returns a 64 bit hash of the image's size and pixels, using the Murmur3 mixing steps. Fully transparent pixels hash the
+	 * same regardless of their color, as they did when images were drawn to a blank ARGB image before hashing. */
+	static long hash (BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		int[] pixels = TexturePacker.getPixels(image);
+		long hash = 0x9e3779b97f4a7c15L ^ ((long)width << 32 | height);
+		for (int i = 0, n = pixels.length; i < n; i++) {
+			int pixel = pixels[i];
+			if ((pixel & 0xff000000) == 0) pixel = 0;
+			long k = Long.rotateLeft(pixel * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+			hash = Long.rotateLeft(hash ^ k, 27) * 5 + 0x52dce729;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
 
-			if (!startPoint && (rgba[0] != 0 || rgba[1] != 0 || rgba[2] != 0 || rgba[3] != 255)) splitError(x, y, rgba, name);
+	/** Releases the scaled images kept by all processors, see {@link #scaleImage(BufferedImage, int, int)}. */
+	static public void clearScaleCache () {
+		synchronized (scaleCache) {
+			scaleCache.clear();
+			scaleCachePixels = 0;
+		}
+	}
 
-			next++;
+	/** Scales the image with imgscalr. Results are shared by all processors and kept for the most recently scaled images until
+	 * {@link #clearScaleCache()}, so packing the same images at the same scale again, eg when an incremental pack or a preview
+	 * repacks after an edit, doesn't scale them again. The returned image must not be modified. */
+	static private BufferedImage scaleImage (BufferedImage image, int width, int height) {
+		ScaleKey key = new ScaleKey(hash(image), width, height);
+		ScaledImage cached;
+		synchronized (scaleCache) {
+			cached = scaleCache.get(key);
 		}
+		// Keys only hold a hash, so a hit is compared outside the lock to keep concurrent ingest parallel.
+		if (cached != null && samePixels(cached.source, image)) return cached.image;
+
+		// Shrinks in steps, which is much faster than area averaging and looks as good. Enlarges with bicubic interpolation.
+		BufferedImage result = Scalr.resize(image, Method.ULTRA_QUALITY, Mode.FIT_EXACT, width, height);
+		BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		scaledImage.getRaster().setRect(result.getRaster());
+		result.flush();
+
+		ScaledImage entry = new ScaledImage(image, scaledImage);
+		if (entry.pixels > scaleCacheMaxPixels) return scaledImage;
+		synchronized (scaleCache) {
+			ScaledImage replaced = scaleCache.put(key, entry);
+			if (replaced != null) scaleCachePixels -= replaced.pixels;
+			scaleCachePixels += entry.pixels;
+			for (Iterator<ScaledImage> iter = scaleCache.values().iterator(); scaleCachePixels > scaleCacheMaxPixels;) {
+				scaleCachePixels -= iter.next().pixels;
+				iter.remove();
+			}
+		}
+		return scaledImage;
+	}
 
-		return 0;
+	/** Returns true if the images have the same size and pixels, treating all fully transparent pixels as equal. */
+	static private boolean samePixels (BufferedImage image1, BufferedImage image2) {
+		if (image1.getWidth() != image2.getWidth() || image1.getHeight() != image2.getHeight()) return false;
+		int[] pixels1 = TexturePacker.getPixels(image1), pixels2 = TexturePacker.getPixels(image2);
+		for (int i = 0, n = pixels1.length; i < n; i++) {
+			int pixel1 = pixels1[i], pixel2 = pixels2[i];
+			if (pixel1 != pixel2 && ((pixel1 | pixel2) & 0xff000000) != 0) return false;
+		}
+		return true;
 	}
 
-	static private String hash (BufferedImage image) {
-		try {
-			MessageDigest digest = MessageDigest.getInstance("SHA1");
-
-			// Ensure image is the correct format.
-			int width = image.getWidth();
-			int height = image.getHeight();
-			if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
-				BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				newImage.getGraphics().drawImage(image, 0, 0, null);
-				image = newImage;
-			}
+	static private class ScaleKey {
+		final long hash;
+		final int width, height;
 
-			WritableRaster raster = image.getRaster();
-			int[] pixels = new int[width];
-			for (int y = 0; y < height; y++) {
-				raster.getDataElements(0, y, width, 1, pixels);
-				for (int x = 0; x < width; x++)
-					hash(digest, pixels[x]);
-			}
+		ScaleKey (long hash, int width, int height) {
+			this.hash = hash;
+			this.width = width;
+			this.height = height;
+		}
+
+		public int hashCode () {
+			return (int)(hash ^ hash >>> 32) * 31 + width * 17 + height;
+		}
+
+		public boolean equals (Object obj) {
+			if (!(obj instanceof ScaleKey)) return false;
+			ScaleKey other = (ScaleKey)obj;
+			return hash == other.hash && width == other.width && height == other.height;
+		}
+	}
 
-			hash(digest, width);
-			hash(digest, height);
+	/** A scaled image and the image it was scaled from, which a cache hit must match since keys only hold a hash. */
+	static private class ScaledImage {
+		final BufferedImage source, image;
+		final long pixels;
 
-			return new BigInteger(1, digest.digest()).toString(16);
-		} catch (NoSuchAlgorithmException ex) {
-			throw new RuntimeException(ex);
+		ScaledImage (BufferedImage source, BufferedImage image) {
+			this.source = source;
+			this.image = image;
+			pixels = (long)source.getWidth() * source.getHeight() + (long)image.getWidth() * image.getHeight();
 		}
 	}
 
-	static private void hash (MessageDigest digest, int value) {
-		digest.update((byte)(value >> 24));
-		digest.update((byte)(value >> 16));
-		digest.update((byte)(value >> 8));
-		digest.update((byte)value);
+	static private class ProcessedImage {
+		String name;
+		Rect rect;
+		Long crc;
 	}
 }
\ No newline at end of file
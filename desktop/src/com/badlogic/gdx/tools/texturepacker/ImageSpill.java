@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/** Stores processed images in a temporary file so {@link TexturePacker.Settings#limitMemory} doesn't need to decode and process
+ * each image a second time when pages are written. Images are stored as raw 4 byte ABGR pixels and read straight into the
+ * raster of a new image. Writes and reads use positional file access, so they are safe from multiple threads. The file is
+ * deleted when the spill is closed. */
+class ImageSpill {
+	private final FileChannel channel;
+	private long size;
+
+	public ImageSpill () {
+		try {
+			channel = FileChannel.open(Files.createTempFile("texturepacker", ".spill"), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException ex) {
+			throw new RuntimeException("Error creating image spill file.", ex);
+		}
+	}
+
+	/** Stores the image's pixels and returns the position to read them back from with {@link #read(long, int, int)}. */
+	public long write (BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		BufferedImage abgr = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		abgr.getRaster().setRect(image.getRaster());
+		ByteBuffer buffer = ByteBuffer.wrap(((DataBufferByte)abgr.getRaster().getDataBuffer()).getData());
+
+		long position;
+		synchronized (this) {
+			position = size;
+			size += buffer.remaining();
+		}
+		try {
+			while (buffer.hasRemaining())
+				channel.write(buffer, position + buffer.position());
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing image spill file.", ex);
+		}
+		return position;
+	}
+
+	/** Returns a new 4 byte ABGR image with the pixels stored at the position. */
+	public BufferedImage read (long position, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		ByteBuffer buffer = ByteBuffer.wrap(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+		try {
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException();
+		} catch (IOException ex) {
+			throw new RuntimeException("Error reading image spill file.", ex);
+		}
+		return image;
+	}
+
+	/** Closes and deletes the file. */
+	public void close () {
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
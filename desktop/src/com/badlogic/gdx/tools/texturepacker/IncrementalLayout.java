@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Packer;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.Json;
+
+/** Packs a pack file again while keeping the placement of the rects that didn't change size since the previous pack to the same
+ * file in this process. New and resized rects are inserted into the free space of the existing pages, and rects that don't fit
+ * go on new pages. Pages whose rects and pixels are unchanged and whose image file wasn't touched since it was written are
+ * marked with {@link Page#changed} false so their image isn't written again. See {@link Settings#incremental}. */
+class IncrementalLayout {
+	static private final HashMap<File, IncrementalLayout> layouts = new HashMap();
+
+	private final File packFile;
+	private final Settings settings;
+	private final String settingsJson;
+	private final HashMap<String, Long> hashes = new HashMap();
+	private final HashMap<String, Placement> placements = new HashMap();
+	private final Array<PageFile> pageFiles = new Array();
+	private final Array<File> obsoleteFiles = new Array();
+
+	/** @param packFile The pack file the pages are written to. */
+	IncrementalLayout (File packFile, Settings settings) {
+		this.packFile = packFile.getAbsoluteFile();
+		this.settings = settings;
+		settingsJson = new Json().toJson(settings);
+	}
+
+	/** Packs the processor's rects, reusing the previous layout for the pack file if it was packed with the same settings. Nothing
+	 * is deleted yet: page images of the previous pack that are no longer used, or when there is no usable previous layout the
+	 * pages of an existing pack file, are listed by {@link #getObsoleteFiles()} and deleted by {@link #save(Array, Array)}. */
+	Array<Page> pack (Packer packer, ImageProcessor imageProcessor, ProgressListener progress, CancelToken cancel) {
+		Array<Rect> rects = imageProcessor.getImages();
+		for (int i = 0, n = rects.size; i < n; i++) {
+			cancel.checkCanceled();
+			Rect rect = rects.get(i);
+			hashes.put(getKey(rect), ImageProcessor.hash(rect.getImage(imageProcessor)));
+		}
+
+		// The previous layout stays registered until this one is saved, so a failed pack leaves it usable.
+		IncrementalLayout previous;
+		synchronized (layouts) {
+			previous = layouts.get(packFile);
+		}
+		if (previous == null || !previous.settingsJson.equals(settingsJson)) {
+			if (previous != null) {
+				for (PageFile pageFile : previous.pageFiles)
+					obsoleteFiles.add(pageFile.file);
+			} else
+				findPackFiles();
+			return packer.pack(progress, cancel, rects);
+		}
+		Array<Page> pages = previous.repack(packer, rects, hashes, progress, cancel);
+		Array<String> usedImageNames = new Array();
+		for (Page page : pages)
+			if (page.imageName != null) usedImageNames.add(page.imageName);
+		for (PageFile pageFile : previous.pageFiles)
+			if (!usedImageNames.contains(pageFile.file.getName(), false)) obsoleteFiles.add(pageFile.file);
+		return pages;
+	}
+
+	/** Returns the files of the previous pack that the new pages don't keep. New pages may reuse their names. */
+	Array<File> getObsoleteFiles () {
+		return obsoleteFiles;
+	}
+
+	/** Places the rects that are the same size as before where they were, then inserts the rest. */
+	private Array<Page> repack (Packer packer, Array<Rect> rects, HashMap<String, Long> hashes, ProgressListener progress,
+		CancelToken cancel) {
+		Array<Page> pages = new Array();
+		for (PageFile pageFile : pageFiles) {
+			Page page = new Page();
+			page.imageName = pageFile.file.getName();
+			page.width = pageFile.width;
+			page.height = pageFile.height;
+			page.outputRects = new Array();
+			page.remainingRects = new Array();
+			// Pages whose image was changed or removed by something else are written again.
+			page.changed = !pageFile.isCurrent();
+			pages.add(page);
+		}
+
+		Array<Rect> insertRects = new Array();
+		HashMap<String, Placement> removed = new HashMap(placements);
+		for (int i = 0, n = rects.size; i < n; i++) {
+			Rect rect = rects.get(i);
+			String key = getKey(rect);
+			Placement placement = removed.remove(key);
+			if (placement == null || placement.regionWidth != rect.regionWidth || placement.regionHeight != rect.regionHeight
+				|| (placement.rotated && !rect.canRotate)) {
+				if (placement != null) pages.get(placement.page).changed = true;
+				insertRects.add(rect);
+				continue;
+			}
+			Page page = pages.get(placement.page);
+			Rect node = new Rect();
+			node.set(rect);
+			node.x = placement.x;
+			node.y = placement.y;
+			node.width = placement.width;
+			node.height = placement.height;
+			node.rotated = placement.rotated;
+			page.outputRects.add(node);
+			if (placement.hash != hashes.get(key)) page.changed = true;
+		}
+		for (Placement placement : removed.values())
+			pages.get(placement.page).changed = true;
+
+		// New and resized rects go in the free space of the existing pages, then on new pages.
+		if (insertRects.size > 0) {
+			MaxRectsPacker inserter = new MaxRectsPacker(settings);
+			for (int i = 0; i < pages.size && insertRects.size > 0; i++) {
+				cancel.checkCanceled();
+				Page page = pages.get(i);
+				int placed = page.outputRects.size;
+				insertRects = inserter.insert(page, insertRects);
+				if (page.outputRects.size > placed) page.changed = true;
+			}
+		}
+
+		// Resize changed pages to their rects and drop the pages left empty.
+		for (int i = pages.size - 1; i >= 0; i--) {
+			Page page = pages.get(i);
+			if (page.outputRects.size == 0) {
+				pages.removeIndex(i);
+				continue;
+			}
+			if (!page.changed) continue;
+			page.width = 0;
+			page.height = 0;
+			for (Rect rect : page.outputRects) {
+				page.width = Math.max(page.width, rect.x + rect.width);
+				page.height = Math.max(page.height, rect.y + rect.height);
+			}
+			if (settings.square) {
+				page.width = Math.max(page.width, page.height);
+				page.height = page.width;
+			}
+		}
+		if (insertRects.size > 0) pages.addAll(packer.pack(progress, cancel, insertRects));
+		return pages;
+	}
+
+	/** Deletes the obsolete files that weren't reused and remembers the layout of the pages, which must have been written to the
+	 * files, for the next pack to the same file. */
+	void save (Array<Page> pages, Array<File> outputFiles) {
+		for (File file : obsoleteFiles) {
+			boolean reused = false;
+			for (File outputFile : outputFiles)
+				if (outputFile.getAbsoluteFile().equals(file)) reused = true;
+			if (!reused) file.delete();
+		}
+		obsoleteFiles.clear();
+
+		for (int i = 0; i < pages.size; i++) {
+			Page page = pages.get(i);
+			PageFile pageFile = new PageFile();
+			pageFile.file = outputFiles.get(i).getAbsoluteFile();
+			pageFile.width = page.width;
+			pageFile.height = page.height;
+			pageFile.length = pageFile.file.length();
+			pageFile.lastModified = pageFile.file.lastModified();
+			pageFiles.add(pageFile);
+			for (Rect rect : page.outputRects) {
+				Placement placement = new Placement();
+				placement.page = i;
+				placement.x = rect.x;
+				placement.y = rect.y;
+				placement.width = rect.width;
+				placement.height = rect.height;
+				placement.rotated = rect.rotated;
+				placement.regionWidth = rect.regionWidth;
+				placement.regionHeight = rect.regionHeight;
+				String key = getKey(rect);
+				placement.hash = hashes.get(key);
+				placements.put(key, placement);
+			}
+		}
+		synchronized (layouts) {
+			layouts.put(packFile, this);
+		}
+	}
+
+	/** Adds the page images listed by an existing pack file and the images named like pages of the pack file, such as pages left
+	 * behind by a pack file that was deleted, to the obsolete files. A pack file that can't be read is replaced without reading
+	 * its pages. */
+	private void findPackFiles () {
+		File packDir = packFile.getParentFile();
+		String packName = packFile.getName();
+		if (packName.endsWith(settings.atlasExtension))
+			packName = packName.substring(0, packName.length() - settings.atlasExtension.length());
+		if (packFile.exists()) {
+			FileHandle packFileHandle = new FileHandle(packFile);
+			try {
+				TextureAtlasData textureAtlasData = new TextureAtlasData(packFileHandle, packFileHandle.parent(), false);
+				for (TextureAtlasData.Page page : textureAtlasData.getPages())
+					obsoleteFiles.add(page.textureFile.file().getAbsoluteFile());
+			} catch (GdxRuntimeException ignored) {
+			}
+		}
+		Pattern pageName = Pattern.compile(Pattern.quote(packName) + "\\d*\\." + Pattern.quote(settings.outputFormat),
+			Pattern.CASE_INSENSITIVE);
+		File[] files = packDir.listFiles();
+		if (files == null) return;
+		for (File file : files)
+			if (file.isFile() && pageName.matcher(file.getName()).matches()) obsoleteFiles.add(file.getAbsoluteFile());
+	}
+
+	private String getKey (Rect rect) {
+		return rect.name + "#" + rect.index;
+	}
+
+	static private class Placement {
+		int page, x, y, width, height, regionWidth, regionHeight;
+		boolean rotated;
+		long hash;
+	}
+
+	static private class PageFile {
+		File file;
+		int width, height;
+		long length, lastModified;
+
+		boolean isCurrent () {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+}
@@ -16,25 +16,55 @@
 
 package com.badlogic.gdx.tools.texturepacker;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Packer;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Phase;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Sort;
 
 /** Packs pages of images using the maximal rectangles bin packing algorithm by Jukka Jylänki. A brute force binary search is
  * used to pack into the smallest bin possible.
  * @author Nathan Sweet */
 public class MaxRectsPacker implements Packer {
+	static private final int layoutCacheSize = 8;
+	/** Number of independent searches run by {@link #optimize(Array, Array)} when {@link Settings#optimizeTrials} is set, fixed so
+	 * the result doesn't depend on the number of cores. */
+	static private final int optimizeSearches = 4;
+	/** Page layouts of recent packs, most recently used last. */
+	static private final LinkedHashMap<LayoutKey, PageLayout[]> layoutCache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry (Map.Entry eldest) {
+			return size() > layoutCacheSize;
+		}
+	};
+
 	private RectComparator rectComparator = new RectComparator();
 	private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
 	private MaxRects maxRects = new MaxRects();
 	Settings settings;
 	private Sort sort = new Sort();
+	private final HashMap<Long, ForkJoinTask<Page>> probes = new HashMap();
+	/** Set when the current probes are no longer needed, so those already running stop early. */
+	private AtomicBoolean probesAbandoned = new AtomicBoolean();
+	private ProgressListener progress = ProgressListener.none;
+	private CancelToken cancel = new CancelToken();
 
 	public MaxRectsPacker (Settings settings) {
 		this.settings = settings;
@@ -44,42 +74,223 @@ public class MaxRectsPacker implements Packer {
 	}
 
 	public Array<Page> pack (Array<Rect> inputRects) {
+		return pack(ProgressListener.none, new CancelToken(), inputRects);
+	}
+
+	/** Packs the rects into pages. If the same rects were recently packed with the same settings, the cached layout is applied
+	 * instead of searching again. */
+	public Array<Page> pack (ProgressListener progress, CancelToken cancel, Array<Rect> inputRects) {
+		this.progress = progress;
+		this.cancel = cancel;
+		LayoutKey layoutKey = new LayoutKey(settings, inputRects);
+		Array<Rect> orderedRects = new Array(inputRects);
 		for (int i = 0, nn = inputRects.size; i < nn; i++) {
 			Rect rect = inputRects.get(i);
 			rect.width += settings.paddingX;
 			rect.height += settings.paddingY;
+			rect.inputIndex = i;
 		}
 
-		if (settings.fast) {
-			if (settings.rotation) {
-				// Sort by longest side if rotation is enabled.
-				sort.sort(inputRects, new Comparator<Rect>() {
-					public int compare (Rect o1, Rect o2) {
-						int n1 = o1.width > o1.height ? o1.width : o1.height;
-						int n2 = o2.width > o2.height ? o2.width : o2.height;
-						return n2 - n1;
-					}
-				});
-			} else {
-				// Sort only by width (largest to smallest) if rotation is disabled.
-				sort.sort(inputRects, new Comparator<Rect>() {
-					public int compare (Rect o1, Rect o2) {
-						return o2.width - o1.width;
-					}
-				});
-			}
+		PageLayout[] layouts;
+		synchronized (layoutCache) {
+			layouts = layoutCache.get(layoutKey);
+		}
+		if (layouts != null) {
+			if (!settings.silent) System.out.println("Packing (cached layout)");
+			Array<Page> pages = new Array(layouts.length);
+			for (PageLayout layout : layouts)
+				pages.add(layout.apply(orderedRects));
+			progress.progress(Phase.layout, orderedRects.size, orderedRects.size);
+			return pages;
 		}
 
-		Array<Page> pages = new Array();
-		while (inputRects.size > 0)
+		if (settings.fast) sortBySize(inputRects);
+		Array<Page> pages;
+		try {
+			pages = packPages(inputRects, true);
+			if (settings.optimizeMillis > 0) pages = optimize(inputRects, pages);
+		} finally {
+			// A canceled search leaves its probes behind.
+			cancelProbes();
+		}
+
+		layouts = new PageLayout[pages.size];
+		for (int i = 0; i < pages.size; i++)
+			layouts[i] = new PageLayout(pages.get(i));
+		synchronized (layoutCache) {
+			layoutCache.put(layoutKey, layouts);
+		}
+		return pages;
+
+	}
 
-		{
+	/** Forgets the page layouts of previous packs, so the next pack searches again. */
+	static public void clearLayoutCache () {
+		synchronized (layoutCache) {
+			layoutCache.clear();
+		}
+	}
+
+	private void sortBySize (Array<Rect> inputRects) {
+		if (settings.rotation) {
+			// Sort by longest side if rotation is enabled.
+			sort.sort(inputRects, new Comparator<Rect>() {
+				public int compare (Rect o1, Rect o2) {
+					int n1 = o1.width > o1.height ? o1.width : o1.height;
+					int n2 = o2.width > o2.height ? o2.width : o2.height;
+					return n2 - n1;
+				}
+			});
+		} else {
+			// Sort only by width (largest to smallest) if rotation is disabled.
+			sort.sort(inputRects, new Comparator<Rect>() {
+				public int compare (Rect o1, Rect o2) {
+					return o2.width - o1.width;
+				}
+			});
+		}
+	}
+
+	/** @param report If true, the rects placed are reported to the progress listener. */
+	private Array<Page> packPages (Array<Rect> inputRects, boolean report) {
+		Array<Page> pages = new Array();
+		int total = inputRects.size;
+		while (inputRects.size > 0) {
+			cancel.checkCanceled();
 			Page result = packPage(inputRects);
 			pages.add(result);
 			inputRects = result.remainingRects;
+			if (report) progress.progress(Phase.layout, total - inputRects.size, total);
 		}
 		return pages;
+	}
 
+	/** Packs variations of the rect order in several searches, concurrently if {@link Settings#multithreaded} is true. With only a
+	 * time budget, concurrent searches use every thread of the common pool. With {@link Settings#optimizeTrials}, there are
+	 * {@link #optimizeSearches} searches that split the trials between them. Each search stops when its trials are used, when its
+	 * pages can't get smaller or when its share of {@link Settings#optimizeMillis} has passed. Each rect is inserted in order, as
+	 * with {@link Settings#fast}. Returns the pages with the least area, or the greedy pages if no order did better.
+	 * @param inputRects The rects, with padding. */
+	private Array<Page> optimize (Array<Rect> inputRects, Array<Page> greedyPages) {
+		final Settings trialSettings = new Settings(settings);
+		trialSettings.fast = true;
+		trialSettings.silent = true;
+		trialSettings.multithreaded = false;
+		final Array<Rect> order = new Array(inputRects);
+		sortBySize(order);
+		final long start = System.nanoTime(), budget = settings.optimizeMillis * 1000000L;
+		final ProgressListener progress = this.progress;
+		final CancelToken cancel = this.cancel;
+		final boolean concurrent = settings.multithreaded;
+		long area = 0;
+		for (Rect rect : inputRects)
+			area += (long)rect.width * rect.height;
+		if (settings.square) {
+			long size = (long)Math.ceil(Math.sqrt(area));
+			if (settings.pot && size <= 1 << 30) size = MathUtils.nextPowerOfTwo((int)size);
+			area = size * size;
+		} else if (settings.pot && area <= 1 << 30) {
+			// Power of two page sizes multiply to a power of two.
+			area = MathUtils.nextPowerOfTwo((int)area);
+		}
+		final long minArea = area;
+		if (greedyPages.size == 1 && getArea(greedyPages) <= minArea) return greedyPages;
+
+		final int trials = settings.optimizeTrials;
+		final int searches;
+		if (trials > 0)
+			searches = Math.min(optimizeSearches, trials);
+		else if (concurrent)
+			searches = Math.max(1, ForkJoinPool.commonPool().getParallelism());
+		else
+			searches = optimizeSearches;
+
+		Array<Page> bestPages = greedyPages;
+		ForkJoinTask<Array<Page>>[] tasks = new ForkJoinTask[searches];
+		for (int i = 0; i < searches; i++) {
+			final int index = i;
+			// The first searches try one more order when the trials don't split evenly.
+			final int searchTrials = trials > 0 ? trials / searches + (index < trials % searches ? 1 : 0) : 0;
+			tasks[i] = ForkJoinTask.adapt(new Callable<Array<Page>>() {
+				public Array<Page> call () {
+					MaxRectsPacker packer = new MaxRectsPacker(trialSettings);
+					packer.progress = progress;
+					packer.cancel = cancel;
+					// Concurrent searches share the whole budget, serial searches each get a part of it.
+					long deadline = start + (concurrent ? budget : budget * (index + 1) / searches);
+					return packer.search(order, index, deadline, searchTrials, minArea);
+				}
+			});
+		}
+		if (concurrent) ForkJoinTask.invokeAll(tasks);
+		for (int i = 0; i < searches; i++) {
+			Array<Page> pages = concurrent ? tasks[i].join() : tasks[i].invoke();
+			if (compare(pages, bestPages) < 0) bestPages = pages;
+		}
+
+		if (!settings.silent) {
+			long greedyArea = getArea(greedyPages), bestArea = getArea(bestPages);
+			System.out.println("Optimized: " + bestPages.size + " pages, area " + bestArea + " (greedy: " + greedyPages.size
+				+ " pages, area " + greedyArea + ", " + Math.round((1 - bestArea / (double)greedyArea) * 1000) / 10f + "% smaller)");
+		}
+		return bestPages;
+	}
+
+	/** Hill climbs on the rect order, starting from the given order. Each step swaps a few random rects and keeps the new order
+	 * if its pages are no worse. After many steps without improvement the search restarts from a random order. Returns the best
+	 * pages found before the deadline or the trial limit, or as soon as they are a single page with no unused area.
+	 * @param trials The maximum number of orders to try, or 0 for no limit.
+	 * @param minArea The least area a single page can have. */
+	private Array<Page> search (Array<Rect> order, long seed, long deadline, int trials, long minArea) {
+		Random random = new Random(seed);
+		Array<Rect> current = new Array(order);
+		Array<Page> currentPages = packPages(current, false), bestPages = currentPages;
+		int n = current.size, stale = 0;
+		for (int tried = 1; (trials <= 0 || tried < trials) && n > 1; tried++) {
+			if (bestPages.size == 1 && getArea(bestPages) <= minArea) break;
+			if (System.nanoTime() >= deadline) break;
+			cancel.checkCanceled();
+			Array<Rect> trial = new Array(current);
+			boolean restart = stale >= 100;
+			if (restart) {
+				for (int i = n - 1; i > 0; i--)
+					trial.swap(i, random.nextInt(i + 1));
+				stale = 0;
+			} else {
+				for (int i = 1 + random.nextInt(3); i > 0; i--)
+					trial.swap(random.nextInt(n), random.nextInt(n));
+			}
+			Array<Page> pages = packPages(trial, false);
+			int comparison = compare(pages, currentPages);
+			if (restart || comparison <= 0) {
+				current = trial;
+				currentPages = pages;
+			}
+			stale = comparison < 0 ? 0 : stale + 1;
+			if (compare(pages, bestPages) < 0) bestPages = pages;
+		}
+		return bestPages;
+	}
+
+	/** Compares by page count, then by total page area. */
+	private int compare (Array<Page> pages1, Array<Page> pages2) {
+		if (pages1.size != pages2.size) return pages1.size - pages2.size;
+		return Long.compare(getArea(pages1), getArea(pages2));
+	}
+
+	/** Returns the total area of the page images, before edge padding. */
+	private long getArea (Array<Page> pages) {
+		long area = 0;
+		for (Page page : pages) {
+			int width = page.width, height = page.height;
+			if (settings.pot) {
+				width = MathUtils.nextPowerOfTwo(width);
+				height = MathUtils.nextPowerOfTwo(height);
+			}
+			if (settings.square) width = height = Math.max(width, height);
+			area += (long)width * height;
+		}
+		return area;
 	}
 
 	private Page packPage (Array<Rect> inputRects) {
@@ -138,7 +349,13 @@ public class MaxRectsPacker implements Packer {
 			BinarySearch sizeSearch = new BinarySearch(minSize, maxSize, settings.fast ? 25 : 15, settings.pot);
 			int size = sizeSearch.reset(), i = 0;
 			while (size != -1) {
-				Page result = packAtSize(true, size - edgePaddingX, size - edgePaddingY, inputRects);
+				cancel.checkCanceled();
+				if (settings.multithreaded) {
+					forkProbe(size, size, edgePaddingX, edgePaddingY, inputRects);
+					forkProbe(sizeSearch.peek(true), sizeSearch.peek(true), edgePaddingX, edgePaddingY, inputRects);
+					forkProbe(sizeSearch.peek(false), sizeSearch.peek(false), edgePaddingX, edgePaddingY, inputRects);
+				}
+				Page result = packProbe(size - edgePaddingX, size - edgePaddingY, inputRects);
 				if (!settings.silent) {
 					if (++i % 70 == 0) System.out.println();
 					System.out.print(".");
@@ -147,6 +364,7 @@ public class MaxRectsPacker implements Packer {
 				size = sizeSearch.next(result == null);
 			}
 			if (!settings.silent) System.out.println();
+			cancelProbes();
 			// Rects don't fit on one page. Fill a whole page and return.
 			if (bestResult == null) bestResult = packAtSize(false, maxSize - edgePaddingX, maxSize - edgePaddingY, inputRects);
 			sort.sort(bestResult.outputRects, rectComparator);
@@ -161,7 +379,13 @@ public class MaxRectsPacker implements Packer {
 			while (true) {
 				Page bestWidthResult = null;
 				while (width != -1) {
-					Page result = packAtSize(true, width - edgePaddingX, height - edgePaddingY, inputRects);
+					cancel.checkCanceled();
+					if (settings.multithreaded) {
+						forkProbe(width, height, edgePaddingX, edgePaddingY, inputRects);
+						forkProbe(widthSearch.peek(true), height, edgePaddingX, edgePaddingY, inputRects);
+						forkProbe(widthSearch.peek(false), height, edgePaddingX, edgePaddingY, inputRects);
+					}
+					Page result = packProbe(width - edgePaddingX, height - edgePaddingY, inputRects);
 					if (!settings.silent) {
 						if (++i % 70 == 0) System.out.println();
 						System.out.print(".");
@@ -177,6 +401,7 @@ public class MaxRectsPacker implements Packer {
 				width = widthSearch.reset();
 			}
 			if (!settings.silent) System.out.println();
+			cancelProbes();
 			// Rects don't fit on one page. Fill a whole page and return.
 			if (bestResult == null)
 				bestResult = packAtSize(false, settings.maxWidth - edgePaddingX, settings.maxHeight - edgePaddingY, inputRects);
@@ -185,27 +410,68 @@ public class MaxRectsPacker implements Packer {
 		}
 	}
 
+	/** Starts a full pack at the given page size on the fork-join pool so it is ready when the binary search reaches it. Does
+	 * nothing if the size is the end of the search or was already started. */
+	private void forkProbe (int width, int height, int edgePaddingX, int edgePaddingY, final Array<Rect> inputRects) {
+		if (width == -1 || height == -1) return;
+		final int probeWidth = width - edgePaddingX, probeHeight = height - edgePaddingY;
+		Long key = ((long)probeWidth << 32) | probeHeight;
+		if (probes.containsKey(key)) return;
+		final AtomicBoolean abandoned = probesAbandoned;
+		probes.put(key, ForkJoinTask.adapt(new Callable<Page>() {
+			public Page call () {
+				return packAtSize(true, probeWidth, probeHeight, inputRects, abandoned);
+			}
+		}).fork());
+	}
+
+	/** Returns the result of a full pack at the given size, joining the forked probe if there is one. */
+	private Page packProbe (int width, int height, Array<Rect> inputRects) {
+		ForkJoinTask<Page> probe = probes.get(((long)width << 32) | height);
+		if (probe != null) return probe.join();
+		return packAtSize(true, width, height, inputRects);
+	}
+
+	/** Cancels the speculative probes the search did not need. Probes that already started stop at their next rect. */
+	private void cancelProbes () {
+		probesAbandoned.set(true);
+		probesAbandoned = new AtomicBoolean();
+		for (ForkJoinTask<Page> probe : probes.values())
+			probe.cancel(false);
+		probes.clear();
+	}
+
 	/** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not
 	 *           all rects may be packed. */
 	private Page packAtSize (boolean fully, int width, int height, Array<Rect> inputRects) {
+		return packAtSize(fully, width, height, inputRects, null);
+	}
+
+	/** @param abandoned If not null, the pack throws {@link CancellationException} once this is set. */
+	private Page packAtSize (boolean fully, final int width, final int height, final Array<Rect> inputRects,
+		final AtomicBoolean abandoned) {
 		Page bestResult = null;
-		for (int i = 0, n = methods.length; i < n; i++) {
-			maxRects.init(width, height);
-			Page result;
-			if (!settings.fast) {
-				result = maxRects.pack(inputRects, methods[i]);
-			} else {
-				Array<Rect> remaining = new Array();
-				for (int ii = 0, nn = inputRects.size; ii < nn; ii++) {
-					Rect rect = inputRects.get(ii);
-					if (maxRects.insert(rect, methods[i]) == null) {
-						while (ii < nn)
-							remaining.add(inputRects.get(ii++));
+		if (settings.multithreaded) {
+			// Each heuristic gets its own MaxRects. Results are compared in method order, as in the serial path.
+			ForkJoinTask<Page>[] tasks = new ForkJoinTask[methods.length];
+			for (int i = 0, n = methods.length; i < n; i++) {
+				final FreeRectChoiceHeuristic method = methods[i];
+				tasks[i] = ForkJoinTask.adapt(new Callable<Page>() {
+					public Page call () {
+						return packAtSize(new MaxRects(), method, width, height, inputRects, abandoned);
 					}
-				}
-				result = maxRects.getResult();
-				result.remainingRects = remaining;
+				}).fork();
+			}
+			for (int i = 0, n = tasks.length; i < n; i++) {
+				Page result = tasks[i].join();
+				if (fully && result.remainingRects.size > 0) continue;
+				if (result.outputRects.size == 0) continue;
+				bestResult = getBest(bestResult, result);
 			}
+			return bestResult;
+		}
+		for (int i = 0, n = methods.length; i < n; i++) {
+			Page result = packAtSize(maxRects, methods[i], width, height, inputRects, abandoned);
 			if (fully && result.remainingRects.size > 0) continue;
 			if (result.outputRects.size == 0) continue;
 			bestResult = getBest(bestResult, result);
@@ -213,6 +479,61 @@ public class MaxRectsPacker implements Packer {
 		return bestResult;
 	}
 
+	private Page packAtSize (MaxRects maxRects, FreeRectChoiceHeuristic method, int width, int height, Array<Rect> inputRects,
+		AtomicBoolean abandoned) {
+		maxRects.init(width, height);
+		Page result;
+		if (!settings.fast) {
+			result = maxRects.pack(inputRects, method, abandoned);
+		} else {
+			Array<Rect> remaining = new Array();
+			for (int ii = 0, nn = inputRects.size; ii < nn; ii++) {
+				cancel.checkCanceled();
+				if (abandoned != null && abandoned.get()) throw new CancellationException();
+				Rect rect = inputRects.get(ii);
+				if (maxRects.insert(rect, method) == null) {
+					while (ii < nn)
+						remaining.add(inputRects.get(ii++));
+				}
+			}
+			result = maxRects.getResult();
+			result.remainingRects = remaining;
+		}
+		return result;
+	}
+
+	/** Inserts rects into the space left free by the rects already on the page, which may grow up to the max page size. Padding
+	 * is added to the rects that are placed. Returns the rects that didn't fit. */
+	Array<Rect> insert (Page page, Array<Rect> inputRects) {
+		int edgePaddingX = 0, edgePaddingY = 0;
+		if (settings.edgePadding && !settings.duplicatePadding) {
+			edgePaddingX = settings.paddingX;
+			edgePaddingY = settings.paddingY;
+		}
+		if (settings.square) {
+			int maxSize = Math.min(settings.maxWidth, settings.maxHeight);
+			maxRects.init(maxSize - edgePaddingX, maxSize - edgePaddingY);
+		} else
+			maxRects.init(settings.maxWidth - edgePaddingX, settings.maxHeight - edgePaddingY);
+		for (int i = 0, n = page.outputRects.size; i < n; i++)
+			maxRects.placeRect(page.outputRects.get(i));
+
+		Array<Rect> remaining = new Array();
+		for (int i = 0, n = inputRects.size; i < n; i++) {
+			cancel.checkCanceled();
+			Rect rect = new Rect();
+			rect.set(inputRects.get(i));
+			rect.width += settings.paddingX;
+			rect.height += settings.paddingY;
+			Rect node = maxRects.insert(rect, FreeRectChoiceHeuristic.BestShortSideFit);
+			if (node == null)
+				remaining.add(inputRects.get(i));
+			else
+				page.outputRects.add(node);
+		}
+		return remaining;
+	}
+
 	private Page getBest (Page result1, Page result2) {
 		if (result1 == null) return result2;
 		if (result2 == null) return result1;
@@ -247,6 +568,16 @@ public class MaxRectsPacker implements Packer {
 			if (Math.abs(low - high) < fuzziness) return -1;
 			return pot ? (int)Math.pow(2, current) : current;
 		}
+
+		/** Returns the value {@link #next(boolean)} would return, without advancing the search. */
+		public int peek (boolean result) {
+			int low = this.low, high = this.high, current = this.current;
+			int next = next(result);
+			this.low = low;
+			this.high = high;
+			this.current = current;
+			return next;
+		}
 	}
 
 	/** Maximal rectangles bin packing algorithm. Adapted from this C++ public domain source:
@@ -258,6 +589,8 @@ public class MaxRectsPacker implements Packer {
 		private int binHeight;
 		private final Array<Rect> usedRectangles = new Array();
 		private final Array<Rect> freeRectangles = new Array();
+		private final Array<Rect> newFreeRectangles = new Array();
+		private final UsedGrid usedGrid = new UsedGrid();
 
 		public void init (int width, int height) {
 			binWidth = width;
@@ -265,6 +598,7 @@ public class MaxRectsPacker implements Packer {
 
 			usedRectangles.clear();
 			freeRectangles.clear();
+			usedGrid.init(width, height);
 			Rect n = new Rect();
 			n.x = 0;
 			n.y = 0;
@@ -278,16 +612,7 @@ public class MaxRectsPacker implements Packer {
 			Rect newNode = scoreRect(rect, method);
 			if (newNode.height == 0) return null;
 
-			int numRectanglesToProcess = freeRectangles.size;
-			for (int i = 0; i < numRectanglesToProcess; ++i) {
-				if (splitFreeNode(freeRectangles.get(i), newNode)) {
-					freeRectangles.removeIndex(i);
-					--i;
-					--numRectanglesToProcess;
-				}
-			}
-
-			pruneFreeList();
+			splitFreeRectangles(newNode);
 
 			Rect bestNode = new Rect();
 			bestNode.set(rect);
@@ -300,13 +625,17 @@ public class MaxRectsPacker implements Packer {
 			bestNode.rotated = newNode.rotated;
 
 			usedRectangles.add(bestNode);
+			usedGrid.add(bestNode);
 			return bestNode;
 		}
 
-		/** For each rectangle, packs each one then chooses the best and packs that. Slow! */
-		public Page pack (Array<Rect> rects, FreeRectChoiceHeuristic method) {
+		/** For each rectangle, packs each one then chooses the best and packs that. Slow!
+		 * @param abandoned If not null, the pack throws {@link CancellationException} once this is set. */
+		public Page pack (Array<Rect> rects, FreeRectChoiceHeuristic method, AtomicBoolean abandoned) {
 			rects = new Array(rects);
 			while (rects.size > 0) {
+				cancel.checkCanceled();
+				if (abandoned != null && abandoned.get()) throw new CancellationException();
 				int bestRectIndex = -1;
 				Rect bestNode = new Rect();
 				bestNode.score1 = Integer.MAX_VALUE;
@@ -355,18 +684,24 @@ public class MaxRectsPacker implements Packer {
 		}
 
 		private void placeRect (Rect node) {
-			int numRectanglesToProcess = freeRectangles.size;
-			for (int i = 0; i < numRectanglesToProcess; i++) {
-				if (splitFreeNode(freeRectangles.get(i), node)) {
-					freeRectangles.removeIndex(i);
-					--i;
-					--numRectanglesToProcess;
-				}
-			}
+			splitFreeRectangles(node);
+			usedRectangles.add(node);
+			usedGrid.add(node);
+		}
 
+		/** Replaces the free rectangles the used node intersects with the parts of them it leaves free, then prunes. The result,
+		 * including the order of the free list that breaks scoring ties, is the same as splitting and removing each in turn and
+		 * pruning every pair. */
+		private void splitFreeRectangles (Rect usedNode) {
+			Array<Rect> freeRectangles = this.freeRectangles;
+			Object[] items = freeRectangles.items;
+			int kept = 0;
+			for (int i = 0, n = freeRectangles.size; i < n; i++) {
+				Rect freeNode = (Rect)items[i];
+				if (!splitFreeNode(freeNode, usedNode)) items[kept++] = freeNode;
+			}
+			freeRectangles.truncate(kept);
 			pruneFreeList();
-
-			usedRectangles.add(node);
 		}
 
 		private Rect scoreRect (Rect rect, FreeRectChoiceHeuristic method) {
@@ -596,13 +931,26 @@ public class MaxRectsPacker implements Packer {
 			if (x == 0 || x + width == binWidth) score += height;
 			if (y == 0 || y + height == binHeight) score += width;
 
-			Array<Rect> usedRectangles = this.usedRectangles;
-			for (int i = 0, n = usedRectangles.size; i < n; i++) {
-				Rect rect = usedRectangles.get(i);
-				if (rect.x == x + width || rect.x + rect.width == x)
-					score += commonIntervalLength(rect.y, rect.y + rect.height, y, y + height);
-				if (rect.y == y + height || rect.y + rect.height == y)
-					score += commonIntervalLength(rect.x, rect.x + rect.width, x, x + width);
+			// Only used rects within a pixel of the node can touch it.
+			UsedGrid usedGrid = this.usedGrid;
+			int minX = Math.max(0, x - 1), minY = Math.max(0, y - 1);
+			int minColumn = usedGrid.getColumn(minX), maxColumn = usedGrid.getColumn(x + width);
+			int minRow = usedGrid.getRow(minY), maxRow = usedGrid.getRow(y + height);
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int column = minColumn; column <= maxColumn; column++) {
+					Array<Rect> cell = usedGrid.cells[row * usedGrid.columns + column];
+					if (cell == null) continue;
+					for (int i = 0, n = cell.size; i < n; i++) {
+						Rect rect = cell.get(i);
+						// A rect spanning several cells is counted in the first cell it shares with the query.
+						if (usedGrid.getColumn(Math.max(rect.x, minX)) != column || usedGrid.getRow(Math.max(rect.y, minY)) != row)
+							continue;
+						if (rect.x == x + width || rect.x + rect.width == x)
+							score += commonIntervalLength(rect.y, rect.y + rect.height, y, y + height);
+						if (rect.y == y + height || rect.y + rect.height == y)
+							score += commonIntervalLength(rect.x, rect.x + rect.width, x, x + width);
+					}
+				}
 			}
 			return score;
 		}
@@ -643,6 +991,8 @@ public class MaxRectsPacker implements Packer {
 			return bestNode;
 		}
 
+		/** Adds the parts of the free node not covered by the used node to {@link #newFreeRectangles}. Returns false if they don't
+		 * intersect. */
 		private boolean splitFreeNode (Rect freeNode, Rect usedNode) {
 			// Test with SAT if the rectangles even intersect.
 			if (usedNode.x >= freeNode.x + freeNode.width || usedNode.x + usedNode.width <= freeNode.x
@@ -653,7 +1003,7 @@ public class MaxRectsPacker implements Packer {
 				if (usedNode.y > freeNode.y && usedNode.y < freeNode.y + freeNode.height) {
 					Rect newNode = new Rect(freeNode);
 					newNode.height = usedNode.y - newNode.y;
-					freeRectangles.add(newNode);
+					newFreeRectangles.add(newNode);
 				}
 
 				// New node at the bottom side of the used node.
@@ -661,7 +1011,7 @@ public class MaxRectsPacker implements Packer {
 					Rect newNode = new Rect(freeNode);
 					newNode.y = usedNode.y + usedNode.height;
 					newNode.height = freeNode.y + freeNode.height - (usedNode.y + usedNode.height);
-					freeRectangles.add(newNode);
+					newFreeRectangles.add(newNode);
 				}
 			}
 
@@ -670,7 +1020,7 @@ public class MaxRectsPacker implements Packer {
 				if (usedNode.x > freeNode.x && usedNode.x < freeNode.x + freeNode.width) {
 					Rect newNode = new Rect(freeNode);
 					newNode.width = usedNode.x - newNode.x;
-					freeRectangles.add(newNode);
+					newFreeRectangles.add(newNode);
 				}
 
 				// New node at the right side of the used node.
@@ -678,44 +1028,51 @@ public class MaxRectsPacker implements Packer {
 					Rect newNode = new Rect(freeNode);
 					newNode.x = usedNode.x + usedNode.width;
 					newNode.width = freeNode.x + freeNode.width - (usedNode.x + usedNode.width);
-					freeRectangles.add(newNode);
+					newFreeRectangles.add(newNode);
 				}
 			}
 
 			return true;
 		}
 
+		/** Removes the new free rectangles that are redundant and adds the rest to the free list. The free list has no
+		 * rectangle contained in another after the previous prune, and none of its rectangles can be contained in a new one since
+		 * new ones are parts of a removed free rectangle. Only the new ones need to be checked, against the free list and then
+		 * pairwise in the same order as a full pairwise prune. */
 		private void pruneFreeList () {
-			/*
-			 * /// Would be nice to do something like this, to avoid a Theta(n^2) loop through each pair. /// But unfortunately it
-			 * doesn't quite cut it, since we also want to detect containment. /// Perhaps there's another way to do this faster than
-			 * Theta(n^2).
-			 * 
-			 * if (freeRectangles.size > 0) clb::sort::QuickSort(&freeRectangles[0], freeRectangles.size, NodeSortCmp);
-			 * 
-			 * for(int i = 0; i < freeRectangles.size-1; i++) if (freeRectangles[i].x == freeRectangles[i+1].x && freeRectangles[i].y
-			 * == freeRectangles[i+1].y && freeRectangles[i].width == freeRectangles[i+1].width && freeRectangles[i].height ==
-			 * freeRectangles[i+1].height) { freeRectangles.erase(freeRectangles.begin() + i); --i; }
-			 */
-
-			// Go through each pair and remove any rectangle that is redundant.
-			Array<Rect> freeRectangles = this.freeRectangles;
-			for (int i = 0, n = freeRectangles.size; i < n; i++)
+			Array<Rect> freeRectangles = this.freeRectangles, newFreeRectangles = this.newFreeRectangles;
+			Object[] items = freeRectangles.items;
+			int freeCount = freeRectangles.size;
+			outer:
+			for (int i = newFreeRectangles.size - 1; i >= 0; i--) {
+				Rect rect = newFreeRectangles.get(i);
+				for (int ii = 0; ii < freeCount; ii++) {
+					if (isContainedIn(rect, (Rect)items[ii])) {
+						newFreeRectangles.removeIndex(i);
+						continue outer;
+					}
+				}
+			}
+
+			for (int i = 0, n = newFreeRectangles.size; i < n; i++)
 				for (int j = i + 1; j < n; ++j) {
-					Rect rect1 = freeRectangles.get(i);
-					Rect rect2 = freeRectangles.get(j);
+					Rect rect1 = newFreeRectangles.get(i);
+					Rect rect2 = newFreeRectangles.get(j);
 					if (isContainedIn(rect1, rect2)) {
-						freeRectangles.removeIndex(i);
+						newFreeRectangles.removeIndex(i);
 						--i;
 						--n;
 						break;
 					}
 					if (isContainedIn(rect2, rect1)) {
-						freeRectangles.removeIndex(j);
+						newFreeRectangles.removeIndex(j);
 						--j;
 						--n;
 					}
 				}
+
+			freeRectangles.addAll(newFreeRectangles);
+			newFreeRectangles.clear();
 		}
 
 		private boolean isContainedIn (Rect a, Rect b) {
@@ -723,6 +1080,45 @@ public class MaxRectsPacker implements Packer {
 		}
 	}
 
+	/** Buckets the used rectangles of a bin into square cells so contact scoring only visits the rects near a node. */
+	static class UsedGrid {
+		static private final int cellShift = 6;
+
+		Array<Rect>[] cells = new Array[0];
+		int columns, rows;
+		private final IntArray usedCells = new IntArray();
+
+		void init (int width, int height) {
+			for (int i = 0, n = usedCells.size; i < n; i++)
+				cells[usedCells.get(i)].clear();
+			usedCells.clear();
+			columns = (width >> cellShift) + 1;
+			rows = (height >> cellShift) + 1;
+			if (cells.length < columns * rows) cells = new Array[columns * rows];
+		}
+
+		void add (Rect rect) {
+			int maxColumn = getColumn(rect.x + rect.width - 1), maxRow = getRow(rect.y + rect.height - 1);
+			for (int row = getRow(rect.y); row <= maxRow; row++) {
+				for (int column = getColumn(rect.x); column <= maxColumn; column++) {
+					int index = row * columns + column;
+					Array<Rect> cell = cells[index];
+					if (cell == null) cells[index] = cell = new Array();
+					if (cell.size == 0) usedCells.add(index);
+					cell.add(rect);
+				}
+			}
+		}
+
+		int getColumn (int x) {
+			return Math.min(columns - 1, x >> cellShift);
+		}
+
+		int getRow (int y) {
+			return Math.min(rows - 1, y >> cellShift);
+		}
+	}
+
 	static public enum FreeRectChoiceHeuristic {
 		// BSSF: Positions the rectangle against the short side of a free rectangle into which it fits the best.
 		BestShortSideFit,
@@ -736,6 +1132,93 @@ public class MaxRectsPacker implements Packer {
 		ContactPointRule
 	};
 
+	/** Identifies a pack by the settings and input rect properties that the layout depends on. Rect order matters since the
+	 * sorts are stable. */
+	static class LayoutKey {
+		private final int[] values;
+		private final String[] names;
+		private final int hashCode;
+
+		LayoutKey (Settings settings, Array<Rect> inputRects) {
+			IntArray values = new IntArray(16 + inputRects.size * 3);
+			values.addAll(settings.pot ? 1 : 0, settings.paddingX, settings.paddingY, settings.edgePadding ? 1 : 0,
+				settings.duplicatePadding ? 1 : 0, settings.rotation ? 1 : 0, settings.minWidth, settings.minHeight, settings.maxWidth,
+				settings.maxHeight, settings.square ? 1 : 0, settings.fast ? 1 : 0, settings.flattenPaths ? 1 : 0,
+				settings.optimizeMillis, settings.optimizeTrials);
+			names = new String[inputRects.size];
+			for (int i = 0, n = inputRects.size; i < n; i++) {
+				Rect rect = inputRects.get(i);
+				values.addAll(rect.width, rect.height, rect.canRotate ? 1 : 0);
+				names[i] = rect.name;
+			}
+			this.values = values.toArray();
+			hashCode = 31 * Arrays.hashCode(this.values) + Arrays.hashCode(names);
+		}
+
+		public int hashCode () {
+			return hashCode;
+		}
+
+		public boolean equals (Object obj) {
+			if (!(obj instanceof LayoutKey)) return false;
+			LayoutKey other = (LayoutKey)obj;
+			return hashCode == other.hashCode && Arrays.equals(values, other.values) && Arrays.equals(names, other.names);
+		}
+	}
+
+	/** The geometry of a packed page. Rects are stored by their index in the packer's input. */
+	static class PageLayout {
+		private final int x, y, width, height;
+		private final float occupancy;
+		private final int[] outputRects, remainingRects;
+
+		PageLayout (Page page) {
+			x = page.x;
+			y = page.y;
+			width = page.width;
+			height = page.height;
+			occupancy = page.occupancy;
+			outputRects = new int[page.outputRects.size * 6];
+			for (int i = 0, ii = 0, n = page.outputRects.size; i < n; i++) {
+				Rect rect = page.outputRects.get(i);
+				outputRects[ii++] = rect.inputIndex;
+				outputRects[ii++] = rect.x;
+				outputRects[ii++] = rect.y;
+				outputRects[ii++] = rect.width;
+				outputRects[ii++] = rect.height;
+				outputRects[ii++] = rect.rotated ? 1 : 0;
+			}
+			remainingRects = new int[page.remainingRects.size];
+			for (int i = 0, n = page.remainingRects.size; i < n; i++)
+				remainingRects[i] = page.remainingRects.get(i).inputIndex;
+		}
+
+		/** Returns a page with this layout for the input rects, which must already include padding. */
+		Page apply (Array<Rect> inputRects) {
+			Page page = new Page();
+			page.x = x;
+			page.y = y;
+			page.width = width;
+			page.height = height;
+			page.occupancy = occupancy;
+			page.outputRects = new Array(outputRects.length / 6);
+			for (int i = 0, n = outputRects.length; i < n;) {
+				Rect rect = new Rect();
+				rect.set(inputRects.get(outputRects[i++]));
+				rect.x = outputRects[i++];
+				rect.y = outputRects[i++];
+				rect.width = outputRects[i++];
+				rect.height = outputRects[i++];
+				rect.rotated = outputRects[i++] == 1;
+				page.outputRects.add(rect);
+			}
+			page.remainingRects = new Array(remainingRects.length);
+			for (int i = 0, n = remainingRects.length; i < n; i++)
+				page.remainingRects.add(inputRects.get(remainingRects[i]));
+			return page;
+		}
+	}
+
 	class RectComparator implements Comparator<Rect> {
 		public int compare (Rect o1, Rect o2) {
 			return Rect.getAtlasName(o1.name, settings.flattenPaths).compareTo(Rect.getAtlasName(o2.name, settings.flattenPaths));
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** Writes PNG files with a configurable compression level. Rows are filtered and deflated in blocks which, when multithreaded, are
+ * compressed concurrently in the style of pigz: each block is deflated on its own using the end of the previous block as its
+ * dictionary and the blocks are joined into a single zlib stream. */
+public class PngEncoder {
+	static private final byte[] SIGNATURE = {(byte)137, 80, 78, 71, 13, 10, 26, 10};
+	static private final int IHDR = 0x49484452, IDAT = 0x49444154, IEND = 0x49454E44;
+	static private final int COLOR_GRAY = 0, COLOR_RGB = 2, COLOR_RGBA = 6;
+	static private final int BLOCK_SIZE = 128 * 1024, DICTIONARY_SIZE = 32 * 1024;
+
+	private final int compression;
+	private final boolean multithreaded;
+
+	/** @param compression The deflate level, from 0 for no compression to 9 for the smallest files. */
+	public PngEncoder (int compression, boolean multithreaded) {
+		if (compression < 0 || compression > 9) throw new IllegalArgumentException("Invalid PNG compression level: " + compression);
+		this.compression = compression;
+		this.multithreaded = multithreaded;
+	}
+
+	public void write (BufferedImage image, File file) throws IOException {
+		int width = image.getWidth(), height = image.getHeight();
+		int colorType = getColorType(image);
+		int rowSize = width * (colorType == COLOR_RGBA ? 4 : colorType == COLOR_RGB ? 3 : 1) + 1;
+		int rowsPerBlock = Math.max(1, BLOCK_SIZE / rowSize);
+		Block[] blocks = new Block[(height + rowsPerBlock - 1) / rowsPerBlock];
+		for (int i = 0; i < blocks.length; i++) {
+			int startRow = i * rowsPerBlock;
+			blocks[i] = new Block(image, colorType, startRow, Math.min(height, startRow + rowsPerBlock));
+		}
+
+		run(blocks, Block.FILTER);
+		long adler = 1;
+		for (int i = 0; i < blocks.length; i++) {
+			adler = combineAdler(adler, blocks[i].adler, blocks[i].filtered.length);
+			if (i > 0) blocks[i].previous = blocks[i - 1];
+		}
+		blocks[0].first = true;
+		blocks[blocks.length - 1].last = true;
+		blocks[blocks.length - 1].adler = adler;
+		run(blocks, Block.DEFLATE);
+
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			channel.write(ByteBuffer.wrap(SIGNATURE));
+			ByteBuffer header = ByteBuffer.allocate(13);
+			header.putInt(width).putInt(height).put((byte)8).put((byte)colorType).put((byte)0).put((byte)0).put((byte)0);
+			writeChunk(channel, IHDR, header.array(), header.capacity());
+			for (Block block : blocks)
+				writeChunk(channel, IDAT, block.deflated, block.deflatedSize);
+			writeChunk(channel, IEND, new byte[0], 0);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void run (Block[] blocks, final int pass) {
+		if (!multithreaded || blocks.length == 1) {
+			for (Block block : blocks)
+				block.run(pass, compression);
+			return;
+		}
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList(blocks.length);
+		for (final Block block : blocks) {
+			tasks.add(ForkJoinTask.adapt(new Runnable() {
+				public void run () {
+					block.run(pass, compression);
+				}
+			}));
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+
+	static private void writeChunk (FileChannel channel, int type, byte[] data, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length + 12);
+		buffer.putInt(length).putInt(type).put(data, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 4, length + 4);
+		buffer.putInt((int)crc.getValue());
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	static private int getColorType (BufferedImage image) {
+		switch (image.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+			return COLOR_RGB;
+		case BufferedImage.TYPE_BYTE_GRAY:
+			return COLOR_GRAY;
+		default:
+			return COLOR_RGBA;
+		}
+	}
+
+	/** Returns the Adler-32 checksum of two concatenated sequences given the checksum of each and the length of the second. */
+	static private long combineAdler (long adler1, long adler2, long length2) {
+		long base = 65521;
+		long remainder = length2 % base;
+		long sum1 = adler1 & 0xffff;
+		long sum2 = remainder * sum1 % base;
+		sum1 += (adler2 & 0xffff) + base - 1;
+		sum2 += (adler1 >>> 16 & 0xffff) + (adler2 >>> 16 & 0xffff) + base - remainder;
+		if (sum1 >= base) sum1 -= base;
+		if (sum1 >= base) sum1 -= base;
+		if (sum2 >= base << 1) sum2 -= base << 1;
+		if (sum2 >= base) sum2 -= base;
+		return sum1 | sum2 << 16;
+	}
+
+	/** A range of rows which is filtered and then deflated independently of the other blocks. */
+	static private class Block {
+		static final int FILTER = 0, DEFLATE = 1;
+
+		final BufferedImage image;
+		final int colorType, startRow, endRow;
+		byte[] filtered;
+		long adler;
+		Block previous;
+		boolean first, last;
+		byte[] deflated;
+		int deflatedSize;
+
+		Block (BufferedImage image, int colorType, int startRow, int endRow) {
+			this.image = image;
+			this.colorType = colorType;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		void run (int pass, int compression) {
+			if (pass == FILTER)
+				filter(compression);
+			else
+				deflate(compression);
+		}
+
+		private void filter (int compression) {
+			int width = image.getWidth();
+			int bytesPerPixel = colorType == COLOR_RGBA ? 4 : colorType == COLOR_RGB ? 3 : 1;
+			int rowSize = width * bytesPerPixel;
+			byte[] row = new byte[rowSize], priorRow = new byte[rowSize], bestRow = new byte[rowSize], testRow = new byte[rowSize];
+			if (startRow > 0) readRow(startRow - 1, priorRow);
+			filtered = new byte[(endRow - startRow) * (rowSize + 1)];
+			int offset = 0;
+			for (int y = startRow; y < endRow; y++) {
+				readRow(y, row);
+				// Pick the filter with the smallest sum of absolute differences, as libpng does. Level 0 stores rows unfiltered.
+				int bestFilter = 0;
+				System.arraycopy(row, 0, bestRow, 0, rowSize);
+				if (compression > 0) {
+					long bestSum = sum(bestRow);
+					for (int filter = 1; filter <= 4; filter++) {
+						applyFilter(filter, row, priorRow, testRow, bytesPerPixel);
+						long sum = sum(testRow);
+						if (sum < bestSum) {
+							bestSum = sum;
+							bestFilter = filter;
+							byte[] temp = bestRow;
+							bestRow = testRow;
+							testRow = temp;
+						}
+					}
+				}
+				filtered[offset++] = (byte)bestFilter;
+				System.arraycopy(bestRow, 0, filtered, offset, rowSize);
+				offset += rowSize;
+				byte[] temp = priorRow;
+				priorRow = row;
+				row = temp;
+			}
+			Adler32 checksum = new Adler32();
+			checksum.update(filtered, 0, filtered.length);
+			adler = checksum.getValue();
+		}
+
+		private void readRow (int y, byte[] row) {
+			Raster raster = image.getRaster();
+			int width = image.getWidth();
+			switch (image.getType()) {
+			case BufferedImage.TYPE_BYTE_GRAY:
+				raster.getDataElements(0, y, width, 1, row);
+				return;
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB: {
+				int[] pixels = (int[])raster.getDataElements(0, y, width, 1, null);
+				writePixels(pixels, row);
+				return;
+			}
+			default:
+				writePixels(image.getRGB(0, y, width, 1, null, 0, width), row);
+			}
+		}
+
+		private void writePixels (int[] pixels, byte[] row) {
+			boolean alpha = colorType == COLOR_RGBA;
+			for (int x = 0, i = 0, n = pixels.length; x < n; x++) {
+				int argb = pixels[x];
+				row[i++] = (byte)(argb >>> 16);
+				row[i++] = (byte)(argb >>> 8);
+				row[i++] = (byte)argb;
+				if (alpha) row[i++] = (byte)(argb >>> 24);
+			}
+		}
+
+		static private void applyFilter (int filter, byte[] row, byte[] priorRow, byte[] out, int bytesPerPixel) {
+			for (int i = 0, n = row.length; i < n; i++) {
+				int a = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xff : 0;
+				int b = priorRow[i] & 0xff;
+				int c = i >= bytesPerPixel ? priorRow[i - bytesPerPixel] & 0xff : 0;
+				int predictor;
+				switch (filter) {
+				case 1:
+					predictor = a;
+					break;
+				case 2:
+					predictor = b;
+					break;
+				case 3:
+					predictor = (a + b) >>> 1;
+					break;
+				default:
+					int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+					predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+				}
+				out[i] = (byte)(row[i] - predictor);
+			}
+		}
+
+		static private long sum (byte[] row) {
+			long sum = 0;
+			for (int i = 0, n = row.length; i < n; i++)
+				sum += Math.abs(row[i]);
+			return sum;
+		}
+
+		private void deflate (int compression) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream(filtered.length / 2 + 64);
+			if (first) {
+				int level = compression < 2 ? 0 : compression < 6 ? 1 : compression == 6 ? 2 : 3;
+				int header = 0x7800 | level << 6;
+				header += (31 - header % 31) % 31;
+				output.write(header >>> 8);
+				output.write(header & 0xff);
+			}
+
+			Deflater deflater = new Deflater(compression, true);
+			deflater.setStrategy(Deflater.FILTERED);
+			try {
+				if (previous != null) {
+					int length = Math.min(DICTIONARY_SIZE, previous.filtered.length);
+					deflater.setDictionary(previous.filtered, previous.filtered.length - length, length);
+				}
+				deflater.setInput(filtered);
+				byte[] buffer = new byte[16 * 1024];
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished())
+						output.write(buffer, 0, deflater.deflate(buffer));
+				} else {
+					// A sync flush ends the block on a byte boundary so the next block's output can follow it directly.
+					int count;
+					do {
+						count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						output.write(buffer, 0, count);
+					} while (count == buffer.length || !deflater.needsInput());
+				}
+			} finally {
+				deflater.end();
+			}
+
+			if (last) {
+				output.write((int)(adler >>> 24));
+				output.write((int)(adler >>> 16));
+				output.write((int)(adler >>> 8));
+				output.write((int)adler);
+			}
+			deflatedSize = output.size();
+			deflated = output.toByteArray();
+		}
+	}
+}
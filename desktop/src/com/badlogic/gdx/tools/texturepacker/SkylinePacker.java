@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import java.util.Comparator;
+
+import com.badlogic.gdx.tools.texturepacker.MaxRectsPacker.BinarySearch;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Packer;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Phase;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Sort;
+
+/** Packs pages of images using the skyline bottom-left algorithm. Only the top edge of the packed images is tracked, so each
+ * insert is linear in the number of skyline segments instead of quadratic in the number of free rectangles as with
+ * {@link MaxRectsPacker}. Space below overhangs is never reused, so pages are usually a few percent less dense. Intended for
+ * previews where packing time matters more than page size, see SkylineBenchmark in the benchmark source set. */
+public class SkylinePacker implements Packer {
+	private final Settings settings;
+	private final Skyline skyline = new Skyline();
+	private final Sort sort = new Sort();
+
+	public SkylinePacker (Settings settings) {
+		this.settings = settings;
+		if (settings.minWidth > settings.maxWidth) throw new RuntimeException("Page min width cannot be higher than max width.");
+		if (settings.minHeight > settings.maxHeight)
+			throw new RuntimeException("Page min height cannot be higher than max height.");
+	}
+
+	public Array<Page> pack (Array<Rect> inputRects) {
+		return pack(ProgressListener.none, new CancelToken(), inputRects);
+	}
+
+	public Array<Page> pack (ProgressListener progress, CancelToken cancel, Array<Rect> inputRects) {
+		for (int i = 0, nn = inputRects.size; i < nn; i++) {
+			Rect rect = inputRects.get(i);
+			rect.width += settings.paddingX;
+			rect.height += settings.paddingY;
+		}
+
+		// Tallest first keeps the skyline flat.
+		sort.sort(inputRects, new Comparator<Rect>() {
+			public int compare (Rect o1, Rect o2) {
+				int n1 = settings.rotation ? Math.max(o1.width, o1.height) : o1.height;
+				int n2 = settings.rotation ? Math.max(o2.width, o2.height) : o2.height;
+				if (n1 != n2) return n2 - n1;
+				return o2.width - o1.width;
+			}
+		});
+
+		Array<Page> pages = new Array();
+		int total = inputRects.size;
+		while (inputRects.size > 0) {
+			Page result = packPage(cancel, inputRects);
+			pages.add(result);
+			inputRects = result.remainingRects;
+			progress.progress(Phase.layout, total - inputRects.size, total);
+		}
+		return pages;
+	}
+
+	private Page packPage (CancelToken cancel, Array<Rect> inputRects) {
+		int paddingX = settings.paddingX, paddingY = settings.paddingY;
+		int maxWidth = settings.maxWidth, maxHeight = settings.maxHeight;
+		int edgePaddingX = 0, edgePaddingY = 0;
+		if (settings.edgePadding) {
+			if (settings.duplicatePadding) { // If duplicatePadding, edges get only half padding.
+				maxWidth -= paddingX;
+				maxHeight -= paddingY;
+			} else {
+				maxWidth -= paddingX * 2;
+				maxHeight -= paddingY * 2;
+				edgePaddingX = paddingX;
+				edgePaddingY = paddingY;
+			}
+		}
+
+		int minWidth = Integer.MAX_VALUE, minHeight = Integer.MAX_VALUE;
+		long area = 0;
+		for (int i = 0, nn = inputRects.size; i < nn; i++) {
+			Rect rect = inputRects.get(i);
+			minWidth = Math.min(minWidth, rect.width);
+			minHeight = Math.min(minHeight, rect.height);
+			area += (long)rect.width * rect.height;
+			int width = rect.width - paddingX, height = rect.height - paddingY;
+			boolean fits = width <= maxWidth && height <= maxHeight;
+			if (settings.rotation && rect.canRotate) fits |= width <= maxHeight && height <= maxWidth;
+			if (!fits) {
+				String paddingMessage = (edgePaddingX > 0 || edgePaddingY > 0) ? (" and edge padding " + paddingX + "," + paddingY)
+					: "";
+				throw new RuntimeException("Image does not fit with max page size " + settings.maxWidth + "x" + settings.maxHeight
+					+ paddingMessage + ": " + rect.name + "[" + width + "," + height + "]");
+			}
+		}
+
+		if (!settings.silent) System.out.print("Packing");
+
+		// Search for the smallest page that fits all rects, starting no smaller than their total area.
+		int maxSize = settings.square ? Math.min(settings.maxWidth, settings.maxHeight)
+			: Math.max(settings.maxWidth, settings.maxHeight);
+		int minSize = Math.max(Math.max(minWidth, minHeight), Math.max(settings.minWidth, settings.minHeight));
+		minSize = Math.min(maxSize, Math.max(minSize, (int)Math.sqrt(area)));
+		BinarySearch sizeSearch = new BinarySearch(minSize, maxSize, settings.fast ? 25 : 15, settings.pot);
+		Page bestResult = null;
+		int size = sizeSearch.reset();
+		while (size != -1) {
+			cancel.checkCanceled();
+			int width = Math.min(size, settings.maxWidth), height = Math.min(size, settings.maxHeight);
+			Page result = skyline.pack(width - edgePaddingX, height - edgePaddingY, inputRects);
+			boolean fits = result.remainingRects.size == 0;
+			if (fits && (bestResult == null || getArea(result) < getArea(bestResult))) bestResult = result;
+			if (!settings.silent) System.out.print(".");
+			size = sizeSearch.next(!fits);
+		}
+		if (!settings.silent) System.out.println();
+		// Rects don't fit on one page. Fill a whole page and return.
+		if (bestResult == null) {
+			if (settings.square)
+				bestResult = skyline.pack(maxSize - edgePaddingX, maxSize - edgePaddingY, inputRects);
+			else
+				bestResult = skyline.pack(settings.maxWidth - edgePaddingX, settings.maxHeight - edgePaddingY, inputRects);
+		}
+		sort.sort(bestResult.outputRects, new Comparator<Rect>() {
+			public int compare (Rect o1, Rect o2) {
+				return Rect.getAtlasName(o1.name, settings.flattenPaths).compareTo(Rect.getAtlasName(o2.name, settings.flattenPaths));
+			}
+		});
+		if (settings.square) {
+			bestResult.width = Math.max(bestResult.width, bestResult.height);
+			bestResult.height = Math.max(bestResult.width, bestResult.height);
+		}
+		return bestResult;
+	}
+
+	/** Returns the area of the page the result will produce. */
+	private long getArea (Page result) {
+		if (settings.square) {
+			long size = Math.max(result.width, result.height);
+			return size * size;
+		}
+		return (long)result.width * result.height;
+	}
+
+	/** Skyline bottom-left bin packing. The skyline is stored as segments with a left edge, a height and a width, ordered from
+	 * left to right and covering the whole bin width. */
+	class Skyline {
+		private int binWidth, binHeight;
+		private final IntArray segmentX = new IntArray(), segmentY = new IntArray(), segmentWidth = new IntArray();
+
+		/** Packs as many rects as fit, in order. Rects that don't fit are returned in {@link Page#remainingRects}. */
+		public Page pack (int width, int height, Array<Rect> inputRects) {
+			binWidth = width;
+			binHeight = height;
+			segmentX.clear();
+			segmentY.clear();
+			segmentWidth.clear();
+			segmentX.add(0);
+			segmentY.add(0);
+			segmentWidth.add(width);
+
+			Page result = new Page();
+			result.outputRects = new Array();
+			result.remainingRects = new Array();
+			long usedArea = 0;
+			for (int i = 0, nn = inputRects.size; i < nn; i++) {
+				Rect rect = inputRects.get(i);
+				Rect node = insert(rect);
+				if (node == null) {
+					result.remainingRects.add(rect);
+					continue;
+				}
+				result.outputRects.add(node);
+				result.width = Math.max(result.width, node.x + node.width);
+				result.height = Math.max(result.height, node.y + node.height);
+				usedArea += (long)node.width * node.height;
+			}
+			result.occupancy = (float)usedArea / ((long)binWidth * binHeight);
+			return result;
+		}
+
+		/** Places the rect where its top edge is lowest, preferring the narrowest segment. Returns null if it doesn't fit. */
+		private Rect insert (Rect rect) {
+			int bestIndex = -1, bestY = 0, bestTop = Integer.MAX_VALUE, bestSegmentWidth = Integer.MAX_VALUE;
+			boolean bestRotated = false;
+			// Padding stays on the same axes when rotated.
+			int rotatedWidth = rect.height - settings.paddingY + settings.paddingX;
+			int rotatedHeight = rect.width - settings.paddingX + settings.paddingY;
+			boolean rotate = settings.rotation && rect.canRotate && rect.width != rect.height;
+			for (int i = 0, n = segmentX.size; i < n; i++) {
+				for (int r = 0; r < (rotate ? 2 : 1); r++) {
+					int width = r == 0 ? rect.width : rotatedWidth, height = r == 0 ? rect.height : rotatedHeight;
+					int y = fit(i, width, height);
+					if (y == -1) continue;
+					int top = y + height;
+					if (top < bestTop || (top == bestTop && segmentWidth.get(i) < bestSegmentWidth)) {
+						bestIndex = i;
+						bestY = y;
+						bestTop = top;
+						bestSegmentWidth = segmentWidth.get(i);
+						bestRotated = r == 1;
+					}
+				}
+			}
+			if (bestIndex == -1) return null;
+
+			Rect node = new Rect();
+			node.set(rect);
+			node.x = segmentX.get(bestIndex);
+			node.y = bestY;
+			node.width = bestRotated ? rotatedWidth : rect.width;
+			node.height = bestRotated ? rotatedHeight : rect.height;
+			node.rotated = bestRotated;
+			addSegment(bestIndex, node);
+			return node;
+		}
+
+		/** Returns the y the rect would rest at if its left edge is at the segment, or -1 if it doesn't fit in the bin there. */
+		private int fit (int index, int width, int height) {
+			if (segmentX.get(index) + width > binWidth) return -1;
+			int y = 0;
+			for (int i = index, remaining = width; remaining > 0; i++) {
+				y = Math.max(y, segmentY.get(i));
+				if (y + height > binHeight) return -1;
+				remaining -= segmentWidth.get(i);
+			}
+			return y;
+		}
+
+		/** Raises the skyline under the placed rect, then joins neighboring segments of the same height. */
+		private void addSegment (int index, Rect node) {
+			segmentX.insert(index, node.x);
+			segmentY.insert(index, node.y + node.height);
+			segmentWidth.insert(index, node.width);
+
+			for (int i = index + 1; i < segmentX.size; i++) {
+				int shrink = segmentX.get(i - 1) + segmentWidth.get(i - 1) - segmentX.get(i);
+				if (shrink <= 0) break;
+				if (segmentWidth.get(i) <= shrink) {
+					removeSegment(i);
+					i--;
+				} else {
+					segmentX.incr(i, shrink);
+					segmentWidth.incr(i, -shrink);
+					break;
+				}
+			}
+
+			if (index + 1 < segmentX.size && segmentY.get(index) == segmentY.get(index + 1)) {
+				segmentWidth.incr(index, segmentWidth.get(index + 1));
+				removeSegment(index + 1);
+			}
+			if (index > 0 && segmentY.get(index - 1) == segmentY.get(index)) {
+				segmentWidth.incr(index - 1, segmentWidth.get(index));
+				removeSegment(index);
+			}
+		}
+
+		private void removeSegment (int index) {
+			segmentX.removeIndex(index);
+			segmentY.removeIndex(index);
+			segmentWidth.removeIndex(index);
+		}
+	}
+}
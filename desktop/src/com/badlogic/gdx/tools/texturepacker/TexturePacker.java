@@ -19,6 +19,11 @@ package com.badlogic.gdx.tools.texturepacker;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -26,10 +31,15 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -55,6 +65,8 @@ public class TexturePacker {
 	private final ImageProcessor imageProcessor;
 	private final Array<InputImage> inputImages = new Array();
 	private File rootDir;
+	private ProgressListener progress = ProgressListener.none;
+	private CancelToken cancel = new CancelToken();
 
 	/** @param rootDir Used to strip the root directory prefix from image file names, can be null. */
 	public TexturePacker (File rootDir, Settings settings) {
@@ -70,6 +82,8 @@ public class TexturePacker {
 
 		if (settings.grid)
 			packer = new GridPacker(settings);
+		else if (settings.skyline)
+			packer = new SkylinePacker(settings);
 		else
 			packer = new MaxRectsPacker(settings);
 		imageProcessor = new ImageProcessor(rootDir, settings);
@@ -92,200 +106,482 @@ public class TexturePacker {
 		inputImages.add(inputImage);
 	}
 
+	/** Sets the listener that receives the phases of each pack.
+	 * @param progress May be null. */
+	public void setProgressListener (ProgressListener progress) {
+		this.progress = progress != null ? progress : ProgressListener.none;
+	}
+
+	/** Sets the token that can cancel each pack.
+	 * @param cancel May be null. */
+	public void setCancelToken (CancelToken cancel) {
+		this.cancel = cancel != null ? cancel : new CancelToken();
+	}
+
+	/** @throws CanceledException if the cancel token is canceled before the pack finishes. */
 	public void pack (File outputDir, String packFileName) {
 		if (packFileName.endsWith(settings.atlasExtension))
 			packFileName = packFileName.substring(0, packFileName.length() - settings.atlasExtension.length());
 		outputDir.mkdirs();
 
-		for (int i = 0, n = settings.scale.length; i < n; i++) {
-			imageProcessor.setScale(settings.scale[i]);
-			for (InputImage inputImage : inputImages) {
-				if (inputImage.file != null)
-					imageProcessor.addImage(inputImage.file);
-				else
-					imageProcessor.addImage(inputImage.image, inputImage.name);
-			}
-
-			Array<Page> pages = packer.pack(imageProcessor.getImages());
+		if (settings.multithreaded) {
+			packConcurrently(outputDir, packFileName);
+			return;
+		}
 
+		for (int i = 0, n = settings.scale.length; i < n; i++) {
 			String scaledPackFileName = settings.getScaledPackFileName(packFileName, i);
-			writeImages(outputDir, scaledPackFileName, pages);
+			IncrementalLayout incrementalLayout = newIncrementalLayout(outputDir, scaledPackFileName);
+			Array<Page> pages = null;
+			Array<File> outputFiles = null;
+			boolean moved = false;
 			try {
+				pages = packScale(imageProcessor, i, incrementalLayout);
+
+				outputFiles = nameImages(outputDir, scaledPackFileName, pages, incrementalLayout);
+				for (int ii = 0; ii < pages.size; ii++) {
+					Page page = pages.get(ii);
+					if (page.changed)
+						writeImage(page, outputFiles.get(ii), imageProcessor);
+					else
+						sizePage(page);
+					progress.progress(Phase.encode, ii + 1, pages.size);
+				}
+				cancel.checkCanceled();
+				movePages(pages, outputFiles);
+				moved = true;
 				writePackFile(outputDir, scaledPackFileName, pages);
 			} catch (IOException ex) {
 				throw new RuntimeException("Error writing pack file.", ex);
+			} finally {
+				if (!moved && outputFiles != null) deleteTempFiles(pages, outputFiles);
+				imageProcessor.clear();
+			}
+			if (incrementalLayout != null) incrementalLayout.save(pages, outputFiles);
+		}
+	}
+
+	/** Packs each scale in turn while the pages of the scales already packed are composed, bled and encoded on the common
+	 * fork-join pool. At most {@link Settings#maxPagesInMemory} page images are alive at once. The page images are moved into
+	 * place and the pack files are written in scale order after all pages are done, so their contents don't depend on which page
+	 * finishes first and a failed pack leaves the previous files untouched. */
+	private void packConcurrently (File outputDir, String packFileName) {
+		final Semaphore livePages = new Semaphore(Math.max(1, settings.maxPagesInMemory));
+		Array<ForkJoinTask> tasks = new Array();
+		Array<Array<Page>> scalePages = new Array();
+		Array<Array<File>> scaleOutputFiles = new Array();
+		Array<ImageProcessor> imageProcessors = new Array();
+		Array<IncrementalLayout> incrementalLayouts = new Array();
+		RuntimeException error = null;
+		try {
+			for (int i = 0, n = settings.scale.length; i < n; i++) {
+				// Each scale gets its own processor since pages are still reading images at the previous scale.
+				final ImageProcessor imageProcessor = i == 0 ? this.imageProcessor : new ImageProcessor(rootDir, settings);
+				imageProcessors.add(imageProcessor);
+				String scaledPackFileName = settings.getScaledPackFileName(packFileName, i);
+				IncrementalLayout incrementalLayout = newIncrementalLayout(outputDir, scaledPackFileName);
+				incrementalLayouts.add(incrementalLayout);
+				final Array<Page> pages = packScale(imageProcessor, i, incrementalLayout);
+				scalePages.add(pages);
+
+				Array<File> outputFiles = nameImages(outputDir, scaledPackFileName, pages, incrementalLayout);
+				scaleOutputFiles.add(outputFiles);
+				final AtomicInteger completed = new AtomicInteger();
+				for (int ii = 0; ii < pages.size; ii++) {
+					final Page page = pages.get(ii);
+					final File outputFile = outputFiles.get(ii);
+					if (!page.changed) {
+						sizePage(page);
+						progress.progress(Phase.encode, completed.incrementAndGet(), pages.size);
+						continue;
+					}
+					livePages.acquireUninterruptibly();
+					tasks.add(ForkJoinTask.adapt(new Runnable() {
+						public void run () {
+							try {
+								writeImage(page, outputFile, imageProcessor);
+								progress.progress(Phase.encode, completed.incrementAndGet(), pages.size);
+							} finally {
+								livePages.release();
+							}
+						}
+					}).fork());
+				}
+			}
+		} catch (RuntimeException ex) {
+			error = ex;
+		}
+		// Pages still being written are waited for even if packing failed, so no file is written after this returns.
+		for (ForkJoinTask task : tasks) {
+			try {
+				task.join();
+			} catch (RuntimeException ex) {
+				if (error == null) error = ex;
+			}
+		}
+		if (error == null) {
+			try {
+				cancel.checkCanceled();
+			} catch (CanceledException ex) {
+				error = ex;
+			}
+		}
+		if (error != null) {
+			for (int i = 0; i < scaleOutputFiles.size; i++)
+				deleteTempFiles(scalePages.get(i), scaleOutputFiles.get(i));
+			for (ImageProcessor imageProcessor : imageProcessors)
+				imageProcessor.clear();
+			throw error;
+		}
+
+		int moved = 0;
+		try {
+			for (int i = 0, n = settings.scale.length; i < n; i++) {
+				try {
+					movePages(scalePages.get(i), scaleOutputFiles.get(i));
+					moved = i + 1;
+					writePackFile(outputDir, settings.getScaledPackFileName(packFileName, i), scalePages.get(i));
+				} catch (IOException ex) {
+					throw new RuntimeException("Error writing pack file.", ex);
+				}
+				IncrementalLayout incrementalLayout = incrementalLayouts.get(i);
+				if (incrementalLayout != null) incrementalLayout.save(scalePages.get(i), scaleOutputFiles.get(i));
+			}
+		} finally {
+			// Scales not moved into place when a scale fails keep no temporary files.
+			for (int i = moved; i < scaleOutputFiles.size; i++)
+				deleteTempFiles(scalePages.get(i), scaleOutputFiles.get(i));
+			for (ImageProcessor imageProcessor : imageProcessors)
+				imageProcessor.clear();
+		}
+	}
+
+	/** Returns the file a page image or pack file is written to before it replaces the output file. */
+	static private File getTempFile (File outputFile) {
+		return new File(outputFile.getPath() + ".tmp");
+	}
+
+	/** Replaces the image files of the changed pages with the temporary files they were written to. */
+	private void movePages (Array<Page> pages, Array<File> outputFiles) throws IOException {
+		for (int i = 0; i < pages.size; i++) {
+			if (!pages.get(i).changed) continue;
+			File outputFile = outputFiles.get(i);
+			Files.move(getTempFile(outputFile).toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Deletes the temporary image files that a failed pack wrote or was writing. */
+	private void deleteTempFiles (Array<Page> pages, Array<File> outputFiles) {
+		for (int i = 0; i < pages.size; i++)
+			if (pages.get(i).changed) getTempFile(outputFiles.get(i)).delete();
+	}
+
+	/** Packs the images at the first scale and composes each page in memory, without writing any files. Each returned page has
+	 * its {@link Page#image} set. Page and rect fields hold the same values that would be written to the pack file. */
+	public Array<Page> packToImages () {
+		try {
+			Array<Page> pages = packScale(imageProcessor, 0, null);
+			for (Page page : pages) {
+				page.image = composePage(page, imageProcessor);
+				if (settings.premultiplyAlpha) page.image.getColorModel().coerceData(page.image.getRaster(), true);
+				page.outputRects.sort();
 			}
+			return pages;
+		} finally {
 			imageProcessor.clear();
 		}
 	}
 
-	private void writeImages (File outputDir, String scaledPackFileName, Array<Page> pages) {
+	/** Returns the incremental layout for the pack file, or null if {@link Settings#incremental} is false. */
+	private IncrementalLayout newIncrementalLayout (File outputDir, String scaledPackFileName) {
+		if (!settings.incremental) return null;
+		return new IncrementalLayout(new File(outputDir, scaledPackFileName + settings.atlasExtension), settings);
+	}
+
+	/** @param incrementalLayout May be null. */
+	private Array<Page> packScale (ImageProcessor imageProcessor, int scaleIndex, IncrementalLayout incrementalLayout) {
+		imageProcessor.setScale(settings.scale[scaleIndex]);
+		imageProcessor.addImages(inputImages, progress, cancel);
+
+		progress.start(Phase.layout);
+		long start = System.nanoTime();
+		Array<Page> pages;
+		if (incrementalLayout != null)
+			pages = incrementalLayout.pack(packer, imageProcessor, progress, cancel);
+		else
+			pages = packer.pack(progress, cancel, imageProcessor.getImages());
+		progress.end(Phase.layout, System.nanoTime() - start);
+		return pages;
+	}
+
+	/** Picks an unused file name for each page's image and sets {@link Page#imageName}. Pages kept by an incremental pack keep
+	 * their image name, and the names of files it makes obsolete can be used.
+	 * @param incrementalLayout May be null. */
+	private Array<File> nameImages (File outputDir, String scaledPackFileName, Array<Page> pages,
+		IncrementalLayout incrementalLayout) {
 		File packFileNoExt = new File(outputDir, scaledPackFileName);
 		File packDir = packFileNoExt.getParentFile();
 		String imageName = packFileNoExt.getName();
 
+		Array<File> outputFiles = new Array(pages.size);
 		int fileIndex = 0;
 		for (Page page : pages) {
-			int width = page.width, height = page.height;
-			int paddingX = settings.paddingX;
-			int paddingY = settings.paddingY;
-			if (settings.duplicatePadding) {
-				paddingX /= 2;
-				paddingY /= 2;
-			}
-			width -= settings.paddingX;
-			height -= settings.paddingY;
-			if (settings.edgePadding) {
-				page.x = paddingX;
-				page.y = paddingY;
-				width += paddingX * 2;
-				height += paddingY * 2;
+			if (page.imageName != null) {
+				outputFiles.add(new File(packDir, page.imageName));
+				continue;
 			}
-			if (settings.pot) {
-				width = MathUtils.nextPowerOfTwo(width);
-				height = MathUtils.nextPowerOfTwo(height);
-			}
-			width = Math.max(settings.minWidth, width);
-			height = Math.max(settings.minHeight, height);
-			page.imageWidth = width;
-			page.imageHeight = height;
-
 			File outputFile;
 			while (true) {
 				outputFile = new File(packDir, imageName + (fileIndex++ == 0 ? "" : fileIndex) + "." + settings.outputFormat);
 				if (!outputFile.exists()) break;
+				if (incrementalLayout != null && incrementalLayout.getObsoleteFiles().contains(outputFile.getAbsoluteFile(), false))
+					break;
 			}
 			new FileHandle(outputFile).parent().mkdirs();
 			page.imageName = outputFile.getName();
+			outputFiles.add(outputFile);
+		}
+		return outputFiles;
+	}
 
-			BufferedImage canvas = new BufferedImage(width, height, getBufferedImageType(settings.format));
-			Graphics2D g = (Graphics2D)canvas.getGraphics();
+	/** Writes the page image to the temporary file for the output file. */
+	private void writeImage (Page page, File outputFile, ImageProcessor imageProcessor) {
+		BufferedImage canvas = composePage(page, imageProcessor);
+		File tempFile = getTempFile(outputFile);
 
-			if (!settings.silent) System.out.println("Writing " + canvas.getWidth() + "x" + canvas.getHeight() + ": " + outputFile);
+		cancel.checkCanceled();
+		progress.start(Phase.encode);
+		long start = System.nanoTime();
+		if (!settings.silent) System.out.println("Writing " + canvas.getWidth() + "x" + canvas.getHeight() + ": " + outputFile);
 
-			for (Rect rect : page.outputRects) {
-				BufferedImage image = rect.getImage(imageProcessor);
-				int iw = image.getWidth();
-				int ih = image.getHeight();
-				int rectX = page.x + rect.x, rectY = page.y + page.height - rect.y - rect.height;
-				if (settings.duplicatePadding) {
-					int amountX = settings.paddingX / 2;
-					int amountY = settings.paddingY / 2;
-					if (rect.rotated) {
-						// Copy corner pixels to fill corners of the padding.
-						for (int i = 1; i <= amountX; i++) {
-							for (int j = 1; j <= amountY; j++) {
-								plot(canvas, rectX - j, rectY + iw - 1 + i, image.getRGB(0, 0));
-								plot(canvas, rectX + ih - 1 + j, rectY + iw - 1 + i, image.getRGB(0, ih - 1));
-								plot(canvas, rectX - j, rectY - i, image.getRGB(iw - 1, 0));
-								plot(canvas, rectX + ih - 1 + j, rectY - i, image.getRGB(iw - 1, ih - 1));
-							}
-						}
-						// Copy edge pixels into padding.
-						for (int i = 1; i <= amountY; i++) {
-							for (int j = 0; j < iw; j++) {
-								plot(canvas, rectX - i, rectY + iw - 1 - j, image.getRGB(j, 0));
-								plot(canvas, rectX + ih - 1 + i, rectY + iw - 1 - j, image.getRGB(j, ih - 1));
-							}
-						}
-						for (int i = 1; i <= amountX; i++) {
-							for (int j = 0; j < ih; j++) {
-								plot(canvas, rectX + j, rectY - i, image.getRGB(iw - 1, j));
-								plot(canvas, rectX + j, rectY + iw - 1 + i, image.getRGB(0, j));
-							}
+		ImageOutputStream ios = null;
+		try {
+			if (settings.outputFormat.equalsIgnoreCase("jpg") || settings.outputFormat.equalsIgnoreCase("jpeg")) {
+				BufferedImage newImage = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+				newImage.getGraphics().drawImage(canvas, 0, 0, null);
+				canvas = newImage;
+
+				Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+				ImageWriter writer = writers.next();
+				ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(settings.jpegQuality);
+				ios = ImageIO.createImageOutputStream(tempFile);
+				writer.setOutput(ios);
+				writer.write(null, new IIOImage(canvas, null, null), param);
+			} else {
+				if (settings.premultiplyAlpha) canvas.getColorModel().coerceData(canvas.getRaster(), true);
+				if (settings.pngCompression >= 0)
+					new PngEncoder(settings.pngCompression, settings.multithreaded).write(canvas, tempFile);
+				else
+					ImageIO.write(canvas, "png", tempFile);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Error writing file: " + outputFile, ex);
+		} finally {
+			if (ios != null) {
+				try {
+					ios.close();
+				} catch (Exception ignored) {
+				}
+			}
+		}
+		progress.end(Phase.encode, System.nanoTime() - start);
+	}
+
+	/** Sets the page's position and image size. */
+	private void sizePage (Page page) {
+		int width = page.width, height = page.height;
+		int paddingX = settings.paddingX;
+		int paddingY = settings.paddingY;
+		if (settings.duplicatePadding) {
+			paddingX /= 2;
+			paddingY /= 2;
+		}
+		width -= settings.paddingX;
+		height -= settings.paddingY;
+		if (settings.edgePadding) {
+			page.x = paddingX;
+			page.y = paddingY;
+			width += paddingX * 2;
+			height += paddingY * 2;
+		}
+		if (settings.pot) {
+			width = MathUtils.nextPowerOfTwo(width);
+			height = MathUtils.nextPowerOfTwo(height);
+		}
+		width = Math.max(settings.minWidth, width);
+		height = Math.max(settings.minHeight, height);
+		page.imageWidth = width;
+		page.imageHeight = height;
+	}
+
+	/** Sets the page's position and image size and draws its rects, padding and bleed into a new image. */
+	private BufferedImage composePage (Page page, ImageProcessor imageProcessor) {
+		cancel.checkCanceled();
+		progress.start(Phase.compose);
+		long start = System.nanoTime();
+		sizePage(page);
+		int width = page.imageWidth, height = page.imageHeight;
+
+		BufferedImage canvas = new BufferedImage(width, height, getBufferedImageType(settings.format));
+		Graphics2D g = (Graphics2D)canvas.getGraphics();
+
+		// Compose into ARGB ints. For ARGB pages this is the canvas' own buffer, otherwise it is copied to the canvas afterward.
+		int[] pixels;
+		if (canvas.getType() == BufferedImage.TYPE_INT_ARGB)
+			pixels = ((DataBufferInt)canvas.getRaster().getDataBuffer()).getData();
+		else
+			pixels = new int[width * height];
+
+		for (int r = 0, rn = page.outputRects.size; r < rn; r++) {
+			cancel.checkCanceled();
+			Rect rect = page.outputRects.get(r);
+			BufferedImage image = rect.getImage(imageProcessor);
+			int iw = image.getWidth();
+			int ih = image.getHeight();
+			int[] src = getPixels(image);
+			int rectX = page.x + rect.x, rectY = page.y + page.height - rect.y - rect.height;
+			if (settings.duplicatePadding) {
+				int amountX = settings.paddingX / 2;
+				int amountY = settings.paddingY / 2;
+				if (rect.rotated) {
+					// Copy corner pixels to fill corners of the padding.
+					for (int i = 1; i <= amountX; i++) {
+						for (int j = 1; j <= amountY; j++) {
+							plot(pixels, width, height, rectX - j, rectY + iw - 1 + i, src[0]);
+							plot(pixels, width, height, rectX + ih - 1 + j, rectY + iw - 1 + i, src[(ih - 1) * iw]);
+							plot(pixels, width, height, rectX - j, rectY - i, src[iw - 1]);
+							plot(pixels, width, height, rectX + ih - 1 + j, rectY - i, src[ih * iw - 1]);
 						}
-					} else {
-						// Copy corner pixels to fill corners of the padding.
-						for (int i = 1; i <= amountX; i++) {
-							for (int j = 1; j <= amountY; j++) {
-								plot(canvas, rectX - i, rectY - j, image.getRGB(0, 0));
-								plot(canvas, rectX - i, rectY + ih - 1 + j, image.getRGB(0, ih - 1));
-								plot(canvas, rectX + iw - 1 + i, rectY - j, image.getRGB(iw - 1, 0));
-								plot(canvas, rectX + iw - 1 + i, rectY + ih - 1 + j, image.getRGB(iw - 1, ih - 1));
-							}
+					}
+					// Copy edge pixels into padding.
+					for (int i = 1; i <= amountY; i++) {
+						for (int j = 0; j < iw; j++) {
+							plot(pixels, width, height, rectX - i, rectY + iw - 1 - j, src[j]);
+							plot(pixels, width, height, rectX + ih - 1 + i, rectY + iw - 1 - j, src[(ih - 1) * iw + j]);
 						}
-						// Copy edge pixels into padding.
-						for (int i = 1; i <= amountY; i++) {
-							copy(image, 0, 0, iw, 1, canvas, rectX, rectY - i, rect.rotated);
-							copy(image, 0, ih - 1, iw, 1, canvas, rectX, rectY + ih - 1 + i, rect.rotated);
+					}
+					for (int i = 1; i <= amountX; i++) {
+						for (int j = 0; j < ih; j++) {
+							plot(pixels, width, height, rectX + j, rectY - i, src[j * iw + iw - 1]);
+							plot(pixels, width, height, rectX + j, rectY + iw - 1 + i, src[j * iw]);
 						}
-						for (int i = 1; i <= amountX; i++) {
-							copy(image, 0, 0, 1, ih, canvas, rectX - i, rectY, rect.rotated);
-							copy(image, iw - 1, 0, 1, ih, canvas, rectX + iw - 1 + i, rectY, rect.rotated);
+					}
+				} else {
+					// Copy corner pixels to fill corners of the padding.
+					for (int i = 1; i <= amountX; i++) {
+						for (int j = 1; j <= amountY; j++) {
+							plot(pixels, width, height, rectX - i, rectY - j, src[0]);
+							plot(pixels, width, height, rectX - i, rectY + ih - 1 + j, src[(ih - 1) * iw]);
+							plot(pixels, width, height, rectX + iw - 1 + i, rectY - j, src[iw - 1]);
+							plot(pixels, width, height, rectX + iw - 1 + i, rectY + ih - 1 + j, src[ih * iw - 1]);
 						}
 					}
+					// Copy edge pixels into padding.
+					for (int i = 1; i <= amountY; i++) {
+						copy(src, iw, 0, 0, iw, 1, pixels, width, height, rectX, rectY - i, rect.rotated);
+						copy(src, iw, 0, ih - 1, iw, 1, pixels, width, height, rectX, rectY + ih - 1 + i, rect.rotated);
+					}
+					for (int i = 1; i <= amountX; i++) {
+						copy(src, iw, 0, 0, 1, ih, pixels, width, height, rectX - i, rectY, rect.rotated);
+						copy(src, iw, iw - 1, 0, 1, ih, pixels, width, height, rectX + iw - 1 + i, rectY, rect.rotated);
+					}
 				}
-				copy(image, 0, 0, iw, ih, canvas, rectX, rectY, rect.rotated);
-				if (settings.debug) {
-					g.setColor(Color.magenta);
-					g.drawRect(rectX, rectY, rect.width - settings.paddingX - 1, rect.height - settings.paddingY - 1);
-				}
-			}
-
-			if (settings.bleed && !settings.premultiplyAlpha && !(settings.outputFormat.equalsIgnoreCase("jpg") || settings.outputFormat.equalsIgnoreCase("jpeg"))) {
-				canvas = new ColorBleedEffect().processImage(canvas, 2);
-				g = (Graphics2D)canvas.getGraphics();
 			}
+			copy(src, iw, 0, 0, iw, ih, pixels, width, height, rectX, rectY, rect.rotated);
+			progress.progress(Phase.compose, r + 1, rn);
+		}
+		if (canvas.getType() != BufferedImage.TYPE_INT_ARGB) canvas.setRGB(0, 0, width, height, pixels, 0, width);
 
-			if (settings.debug) {
-				g.setColor(Color.magenta);
-				g.drawRect(0, 0, width - 1, height - 1);
+		if (settings.debug) {
+			g.setColor(Color.magenta);
+			for (Rect rect : page.outputRects) {
+				int rectX = page.x + rect.x, rectY = page.y + page.height - rect.y - rect.height;
+				g.drawRect(rectX, rectY, rect.width - settings.paddingX - 1, rect.height - settings.paddingY - 1);
 			}
+		}
+		progress.end(Phase.compose, System.nanoTime() - start);
+
+		if (settings.bleed && !settings.premultiplyAlpha && !(settings.outputFormat.equalsIgnoreCase("jpg") || settings.outputFormat.equalsIgnoreCase("jpeg"))) {
+			cancel.checkCanceled();
+			progress.start(Phase.bleed);
+			start = System.nanoTime();
+			if (settings.multithreaded)
+				canvas = new ColorBleedEffect().processImageParallel(canvas, 2);
+			else
+				canvas = new ColorBleedEffect().processImage(canvas, 2);
+			g = (Graphics2D)canvas.getGraphics();
+			progress.end(Phase.bleed, System.nanoTime() - start);
+		}
 
-			ImageOutputStream ios = null;
-			try {
-				if (settings.outputFormat.equalsIgnoreCase("jpg") || settings.outputFormat.equalsIgnoreCase("jpeg")) {
-					BufferedImage newImage = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-					newImage.getGraphics().drawImage(canvas, 0, 0, null);
-					canvas = newImage;
-
-					Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-					ImageWriter writer = writers.next();
-					ImageWriteParam param = writer.getDefaultWriteParam();
-					param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-					param.setCompressionQuality(settings.jpegQuality);
-					ios = ImageIO.createImageOutputStream(outputFile);
-					writer.setOutput(ios);
-					writer.write(null, new IIOImage(canvas, null, null), param);
-				} else {
-					if (settings.premultiplyAlpha) canvas.getColorModel().coerceData(canvas.getRaster(), true);
-					ImageIO.write(canvas, "png", outputFile);
-				}
-			} catch (IOException ex) {
-				throw new RuntimeException("Error writing file: " + outputFile, ex);
-			} finally {
-				if (ios != null) {
-					try {
-						ios.close();
-					} catch (Exception ignored) {
-					}
-				}
-			}
+		if (settings.debug) {
+			g.setColor(Color.magenta);
+			g.drawRect(0, 0, width - 1, height - 1);
 		}
+		return canvas;
 	}
 
-	static private void plot (BufferedImage dst, int x, int y, int argb) {
-		if (0 <= x && x < dst.getWidth() && 0 <= y && y < dst.getHeight()) dst.setRGB(x, y, argb);
+	static private void plot (int[] dst, int dstWidth, int dstHeight, int x, int y, int argb) {
+		if (0 <= x && x < dstWidth && 0 <= y && y < dstHeight) dst[y * dstWidth + x] = argb;
 	}
 
-	static private void copy (BufferedImage src, int x, int y, int w, int h, BufferedImage dst, int dx, int dy, boolean rotated) {
+	static private void copy (int[] src, int srcWidth, int x, int y, int w, int h, int[] dst, int dstWidth, int dstHeight, int dx,
+		int dy, boolean rotated) {
 		if (rotated) {
 			for (int i = 0; i < w; i++)
 				for (int j = 0; j < h; j++)
-					plot(dst, dx + j, dy + w - i - 1, src.getRGB(x + i, y + j));
+					plot(dst, dstWidth, dstHeight, dx + j, dy + w - i - 1, src[(y + j) * srcWidth + x + i]);
 		} else {
-			for (int i = 0; i < w; i++)
-				for (int j = 0; j < h; j++)
-					plot(dst, dx + i, dy + j, src.getRGB(x + i, y + j));
+			// Copy whole rows, clipped to the page.
+			int startX = Math.max(0, -dx), endX = Math.min(w, dstWidth - dx);
+			if (startX >= endX) return;
+			for (int j = 0; j < h; j++) {
+				int row = dy + j;
+				if (row < 0 || row >= dstHeight) continue;
+				System.arraycopy(src, (y + j) * srcWidth + x + startX, dst, row * dstWidth + dx + startX, endX - startX);
+			}
 		}
 	}
 
+	/** Returns the image's pixels as ARGB. The bytes of 4 byte ABGR rasters, which all processed images use, are read directly. */
+	static int[] getPixels (BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		WritableRaster raster = image.getRaster();
+		if (image.getColorModel() instanceof ComponentColorModel && image.getColorModel().getColorSpace().isCS_sRGB()
+			&& !image.isAlphaPremultiplied() && raster.getNumBands() == 4 && raster.getDataBuffer() instanceof DataBufferByte
+			&& raster.getSampleModel() instanceof PixelInterleavedSampleModel) {
+			PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)raster.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte)raster.getDataBuffer();
+			byte[] data = buffer.getData();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+			int r = bandOffsets[0], g = bandOffsets[1], b = bandOffsets[2], a = bandOffsets[3];
+			int pixelStride = sampleModel.getPixelStride(), scanlineStride = sampleModel.getScanlineStride();
+			int translateX = raster.getSampleModelTranslateX(), translateY = raster.getSampleModelTranslateY();
+			int[] pixels = new int[width * height];
+			for (int y = 0, i = 0; y < height; y++) {
+				int offset = buffer.getOffset() + (y - translateY) * scanlineStride - translateX * pixelStride;
+				for (int x = 0; x < width; x++, i++, offset += pixelStride) {
+					pixels[i] = (data[offset + a] & 0xff) << 24 | (data[offset + r] & 0xff) << 16 | (data[offset + g] & 0xff) << 8
+						| (data[offset + b] & 0xff);
+				}
+			}
+			return pixels;
+		}
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+
 	private void writePackFile (File outputDir, String scaledPackFileName, Array<Page> pages) throws IOException {
+		progress.start(Phase.write);
+		long start = System.nanoTime();
 		File packFile = new File(outputDir, scaledPackFileName + settings.atlasExtension);
 		File packDir = packFile.getParentFile();
 		packDir.mkdirs();
 
-		if (packFile.exists()) {
+		// An incremental pack replaces the pack file instead of appending to it, once the new one is complete.
+		File writeFile = settings.incremental ? getTempFile(packFile) : packFile;
+
+		if (!settings.incremental && packFile.exists()) {
 			// Make sure there aren't duplicate names.
 			TextureAtlasData textureAtlasData = new TextureAtlasData(new FileHandle(packFile), new FileHandle(packFile), false);
 			for (Page page : pages) {
@@ -301,7 +597,7 @@ public class TexturePacker {
 			}
 		}
 
-		Writer writer = new OutputStreamWriter(new FileOutputStream(packFile, true), "UTF-8");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(writeFile, !settings.incremental), "UTF-8");
 		for (Page page : pages) {
 			writer.write("\n" + page.imageName + "\n");
 			writer.write("size: " + page.imageWidth + "," + page.imageHeight + "\n");
@@ -323,6 +619,8 @@ public class TexturePacker {
 			}
 		}
 		writer.close();
+		if (settings.incremental) Files.move(writeFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		progress.end(Phase.write, System.nanoTime() - start);
 	}
 
 	private void writeRect (Writer writer, Page page, Rect rect, String name) throws IOException {
@@ -369,9 +667,13 @@ public class TexturePacker {
 	/** @author Nathan Sweet */
 	static public class Page {
 		public String imageName;
+		/** The composed page, set only by {@link TexturePacker#packToImages()}. */
+		public BufferedImage image;
 		public Array<Rect> outputRects, remainingRects;
 		public float occupancy;
 		public int x, y, width, height, imageWidth, imageHeight;
+		/** False if the page image written by the previous pack is still current, see {@link Settings#incremental}. */
+		public boolean changed = true;
 	}
 
 	/** @author Regnarock
@@ -426,7 +728,10 @@ public class TexturePacker {
 		private boolean isPatch;
 		private BufferedImage image;
 		private File file;
+		private ImageSpill spill;
+		private long spillPosition;
 		int score1, score2;
+		int inputIndex;
 
 		Rect (BufferedImage source, int left, int top, int newWidth, int newHeight, boolean isPatch) {
 			image = new BufferedImage(source.getColorModel(), source.getRaster().createWritableChild(left, top, newWidth, newHeight,
@@ -448,8 +753,17 @@ public class TexturePacker {
 			image = null;
 		}
 
+		/** Moves the image for this rect to the spill, from which {@link #getImage(ImageProcessor)} reads it back without decoding
+		 * and processing the file again. */
+		void spillImage (ImageSpill spill) {
+			spillPosition = spill.write(image);
+			this.spill = spill;
+			image = null;
+		}
+
 		public BufferedImage getImage (ImageProcessor imageProcessor) {
 			if (image != null) return image;
+			if (spill != null) return spill.read(spillPosition, regionWidth, regionHeight);
 
 			BufferedImage image;
 			try {
@@ -494,7 +808,10 @@ public class TexturePacker {
 			canRotate = rect.canRotate;
 			score1 = rect.score1;
 			score2 = rect.score2;
+			inputIndex = rect.inputIndex;
 			file = rect.file;
+			spill = rect.spill;
+			spillPosition = rect.spillPosition;
 			isPatch = rect.isPatch;
 		}
 
@@ -542,6 +859,8 @@ public class TexturePacker {
 		public boolean alias = true;
 		public String outputFormat = "png";
 		public float jpegQuality = 0.9f;
+		public int maxPagesInMemory = 4;
+		public int pngCompression = -1;
 		public boolean ignoreBlankImages = true;
 		public boolean fast;
 		public boolean debug;
@@ -553,6 +872,17 @@ public class TexturePacker {
 		public boolean bleed = true;
 		public boolean limitMemory = true;
 		public boolean grid;
+		public boolean skyline;
+		/** Keeps the placements of the previous pack to the same pack file in this process and only writes the pages that changed.
+		 * The pack file is replaced instead of appended to, so it can't be used when several packs write the same pack file, see
+		 * {@link TexturePackerFileProcessor}. */
+		public boolean incremental;
+		public int optimizeMillis;
+		/** Limits the total orders tried by {@link #optimizeMillis}, 0 for no limit. When the limit is reached before the time is up,
+		 * the optimized pages are the same on every machine. Without a limit, {@link #multithreaded} packs search on every thread
+		 * of the common pool. */
+		public int optimizeTrials;
+		public boolean multithreaded;
 		public float[] scale = {1};
 		public String[] scaleSuffix = {""};
 		public String atlasExtension = ".atlas";
@@ -579,6 +909,8 @@ public class TexturePacker {
 			alias = settings.alias;
 			format = settings.format;
 			jpegQuality = settings.jpegQuality;
+			maxPagesInMemory = settings.maxPagesInMemory;
+			pngCompression = settings.pngCompression;
 			outputFormat = settings.outputFormat;
 			filterMin = settings.filterMin;
 			filterMag = settings.filterMag;
@@ -594,6 +926,11 @@ public class TexturePacker {
 			bleed = settings.bleed;
 			limitMemory = settings.limitMemory;
 			grid = settings.grid;
+			skyline = settings.skyline;
+			incremental = settings.incremental;
+			optimizeMillis = settings.optimizeMillis;
+			optimizeTrials = settings.optimizeTrials;
+			multithreaded = settings.multithreaded;
 			scale = settings.scale;
 			scaleSuffix = settings.scaleSuffix;
 			atlasExtension = settings.atlasExtension;
@@ -683,6 +1020,82 @@ public class TexturePacker {
 
 	static public interface Packer {
 		public Array<Page> pack (Array<Rect> inputRects);
+
+		/** @throws CanceledException if the token is canceled before packing finishes. */
+		public Array<Page> pack (ProgressListener progress, CancelToken cancel, Array<Rect> inputRects);
+	}
+
+	/** The steps of a pack, in the order they happen for each scale. */
+	static public enum Phase {
+		/** Reading, processing and hashing the input images. Progress is in images. */
+		ingest,
+		/** Adding the rects in input order and aliasing identical images. Progress is in images. */
+		alias,
+		/** Packing the rects into pages. Progress is in rects placed. */
+		layout,
+		/** Drawing the rects and padding of a page into its image. Happens once per page. Progress is in rects. */
+		compose,
+		/** Bleeding color into the transparent pixels of a page image. Happens once per page. */
+		bleed,
+		/** Encoding and writing a page image file. Happens once per page. Progress is in pages of the scale, including unchanged
+		 * pages that aren't written. */
+		encode,
+		/** Writing the pack file. */
+		write
+	}
+
+	/** Receives the phases and progress of a pack. When {@link Settings#multithreaded} is true, the methods are called from several
+	 * threads, the page phases of different pages overlap, and pages of one scale are written while the next scale is ingested.
+	 * @see TexturePacker#setProgressListener(ProgressListener) */
+	static public interface ProgressListener {
+		/** A listener that ignores all events. */
+		static public final ProgressListener none = new ProgressListener() {
+		};
+
+		public default void start (Phase phase) {
+		}
+
+		/** @param completed The units of work done in the phase so far, see {@link Phase}. */
+		public default void progress (Phase phase, int completed, int total) {
+		}
+
+		/** @param nanos The time the phase took. */
+		public default void end (Phase phase, long nanos) {
+		}
+	}
+
+	/** Cancels a pack from any thread. The pack checks the token between units of work.
+	 * @see TexturePacker#setCancelToken(CancelToken) */
+	static public class CancelToken {
+		private volatile boolean canceled;
+
+		/** Stops the pack at the next check. The pack throws {@link CanceledException} after deleting the temporary page images it
+		 * wrote, and leaves the existing page images and pack file untouched. */
+		public void cancel () {
+			canceled = true;
+		}
+
+		public boolean isCanceled () {
+			return canceled;
+		}
+
+		/** Clears the canceled state so the token can be used for another pack. */
+		public void reset () {
+			canceled = false;
+		}
+
+		/** @throws CanceledException if {@link #cancel()} was called. */
+		public void checkCanceled () {
+			if (canceled) throw new CanceledException();
+		}
+	}
+
+	static public class CanceledException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public CanceledException () {
+			super("Packing was canceled.");
+		}
 	}
 
 	static final class InputImage {
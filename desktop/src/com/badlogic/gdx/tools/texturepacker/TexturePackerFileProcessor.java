@@ -29,6 +29,12 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +42,10 @@ import java.util.regex.Pattern;
 public class TexturePackerFileProcessor extends FileProcessor {
 	private final Settings defaultSettings;
 	private ObjectMap<File, Settings> dirToSettings = new ObjectMap();
+	private ObjectMap<File, Settings> resolvedSettings = new ObjectMap();
+	private final LinkedHashMap<File, ArrayList<PackJob>> outputDirToJobs = new LinkedHashMap();
+	/** Whether any pack to the output directory so far was incremental. */
+	private final ObjectMap<File, Boolean> outputDirToIncremental = new ObjectMap();
 	private Json json = new Json();
 	private String packFileName;
 	private File root;
@@ -58,6 +68,8 @@ public class TexturePackerFileProcessor extends FileProcessor {
 
 	public ArrayList<Entry> process (File inputFile, File outputRoot) throws Exception {
 		root = inputFile;
+		dirToSettings.clear();
+		resolvedSettings.clear();
 
 		// Collect pack.json setting files.
 		final ArrayList<File> settingsFiles = new ArrayList();
@@ -75,28 +87,33 @@ public class TexturePackerFileProcessor extends FileProcessor {
 			}
 		});
 		for (File settingsFile : settingsFiles) {
-			// Find first parent with settings, or use defaults.
-			Settings settings = null;
-			File parent = settingsFile.getParentFile();
-			while (true) {
-				if (parent.equals(root)) break;
-				parent = parent.getParentFile();
-				settings = dirToSettings.get(parent);
-				if (settings != null) {
-					settings = new Settings(settings);
-					break;
-				}
-			}
-			if (settings == null) settings = new Settings(defaultSettings);
+			// Start from the settings of the first parent with settings, or the defaults.
+			File dir = settingsFile.getParentFile();
+			Settings settings = new Settings(dir.equals(root) ? defaultSettings : getSettings(dir.getParentFile()));
 			// Merge settings from current directory.
 			merge(settings, settingsFile);
-			dirToSettings.put(settingsFile.getParentFile(), settings);
+			dirToSettings.put(dir, settings);
 		}
 
 		// Do actual processing.
 		return super.process(inputFile, outputRoot);
 	}
 
+	/** Returns the settings of the first directory with settings, starting at the specified directory and going up to the root,
+	 * or the default settings. Settings files are merged parent first, so the result for a directory is cached the first time it
+	 * is resolved. */
+	private Settings getSettings (File dir) {
+		Settings settings = resolvedSettings.get(dir);
+		if (settings != null) return settings;
+		settings = dirToSettings.get(dir);
+		if (settings == null) {
+			File parent = dir.getParentFile();
+			settings = dir.equals(root) || parent == null ? defaultSettings : getSettings(parent);
+		}
+		resolvedSettings.put(dir, settings);
+		return settings;
+	}
+
 	private void merge (Settings settings, File settingsFile) {
 		try {
 			json.readFields(settings, new JsonReader().parse(new FileReader(settingsFile)));
@@ -140,22 +157,51 @@ public class TexturePackerFileProcessor extends FileProcessor {
 					deleteProcessor.process(outputRoot + "/" + dir, null);
 			}
 		}
-		return super.process(files, outputRoot);
+		outputDirToJobs.clear();
+		outputDirToIncremental.clear();
+		ArrayList<Entry> entries = super.process(files, outputRoot);
+		packConcurrently();
+		return entries;
+	}
+
+	/** Runs the packs collected by {@link #processDir(Entry, ArrayList)} when the default settings are multithreaded. Packs to
+	 * different output directories are independent and run concurrently. Packs to the same output directory append to the same
+	 * pack file and page image names, so they run one after another in directory order. */
+	private void packConcurrently () throws Exception {
+		if (outputDirToJobs.isEmpty()) return;
+		// Not the fork-join pool, since a multithreaded pack blocks its thread while its pages are written on the pool.
+		ExecutorService executor = Executors.newFixedThreadPool(
+			Math.min(outputDirToJobs.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			ArrayList<Future> futures = new ArrayList();
+			for (final ArrayList<PackJob> jobs : outputDirToJobs.values()) {
+				futures.add(executor.submit(new Callable() {
+					public Object call () throws Exception {
+						for (PackJob job : jobs)
+							job.pack();
+						return null;
+					}
+				}));
+			}
+			Exception error = null;
+			for (Future future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					if (error == null) error = (Exception)ex.getCause();
+				}
+			}
+			if (error != null) throw error;
+		} finally {
+			executor.shutdown();
+			outputDirToJobs.clear();
+		}
 	}
 
 	protected void processDir (Entry inputDir, ArrayList<Entry> files) throws Exception {
 		if (ignoreDirs.contains(inputDir.inputFile)) return;
 
-		// Find first parent with settings, or use defaults.
-		Settings settings = null;
-		File parent = inputDir.inputFile;
-		while (true) {
-			settings = dirToSettings.get(parent);
-			if (settings != null) break;
-			if (parent.equals(root)) break;
-			parent = parent.getParentFile();
-		}
-		if (settings == null) settings = defaultSettings;
+		Settings settings = getSettings(inputDir.inputFile);
 
 		if (settings.combineSubdirectories) {
 			// Collect all files under subdirectories and ignore subdirectories so they won't be packed twice.
@@ -210,11 +256,48 @@ public class TexturePackerFileProcessor extends FileProcessor {
 			}
 		});
 
+		// Packs to the same output directory share a pack file, which an incremental pack would replace.
+		File outputDir = inputDir.outputDir.getAbsoluteFile();
+		Boolean incremental = outputDirToIncremental.get(outputDir);
+		if (incremental != null && (incremental || settings.incremental)) {
+			throw new GdxRuntimeException("Incremental packing can't be used when several directories pack to the same pack file: "
+				+ new File(outputDir, packFileName + settings.atlasExtension));
+		}
+		outputDirToIncremental.put(outputDir, settings.incremental);
+
 		// Pack.
-		if (!settings.silent) System.out.println(inputDir.inputFile.getName());
-		TexturePacker packer = new TexturePacker(root, settings);
+		PackJob job = new PackJob();
+		job.inputDir = inputDir.inputFile;
+		job.outputDir = inputDir.outputDir;
+		job.settings = settings;
+		job.packer = new TexturePacker(root, settings);
 		for (Entry file : files)
-			packer.addImage(file.inputFile);
-		packer.pack(inputDir.outputDir, packFileName);
+			job.packer.addImage(file.inputFile);
+		if (!defaultSettings.multithreaded) {
+			job.pack();
+			return;
+		}
+		ArrayList<PackJob> jobs = outputDirToJobs.get(outputDir);
+		if (jobs == null) {
+			jobs = new ArrayList();
+			outputDirToJobs.put(outputDir, jobs);
+		}
+		jobs.add(job);
+	}
+
+	private class PackJob {
+		File inputDir, outputDir;
+		Settings settings;
+		TexturePacker packer;
+
+		void pack () throws Exception {
+			if (!settings.silent) System.out.println(inputDir.getName());
+			try {
+				packer.pack(outputDir, packFileName);
+			} catch (Exception ex) {
+				if (!defaultSettings.multithreaded) throw ex;
+				throw new Exception("Error processing directory: " + inputDir.getAbsolutePath(), ex);
+			}
+		}
 	}
 }
\ No newline at end of file
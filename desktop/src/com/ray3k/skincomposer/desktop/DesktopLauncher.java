@@ -8,8 +8,17 @@ import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Graphics;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3WindowListener;
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.TextureAtlasData;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Alias;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CancelToken;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.CanceledException;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Phase;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.ProgressListener;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
 import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
 import com.badlogic.gdx.utils.Array;
 import com.ray3k.skincomposer.CloseListener;
@@ -17,14 +26,21 @@ import com.ray3k.skincomposer.Main;
 import com.ray3k.skincomposer.DesktopWorker;
 import com.ray3k.skincomposer.FilesDroppedListener;
 import com.ray3k.skincomposer.TextFileApplicationLogger;
+import com.ray3k.skincomposer.TexturePackListener;
+import com.ray3k.skincomposer.data.PackedAtlas;
 import com.ray3k.skincomposer.utils.Utils;
+import java.awt.image.BufferedImage;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.zip.Deflater;
 import javax.swing.JOptionPane;
 
 public class DesktopLauncher implements DesktopWorker, Lwjgl3WindowListener {
     private Array<FilesDroppedListener> filesDroppedListeners;
     private CloseListener closeListener;
+    private volatile CancelToken previewCancel;
     
     public static void main(String[] arg) {
         Lwjgl3ApplicationConfiguration config = new Lwjgl3ApplicationConfiguration();
@@ -66,6 +82,80 @@ public class DesktopLauncher implements DesktopWorker, Lwjgl3WindowListener {
     
     @Override
     public void texturePack(Array<FileHandle> handles, FileHandle localFile, FileHandle targetFile, int maxWidth, int maxHeight, boolean useStripWhitespace) {
+        Settings settings = createSettings(maxWidth, maxHeight, useStripWhitespace);
+        settings.pngCompression = Deflater.BEST_COMPRESSION;
+        settings.incremental = true;
+        settings.optimizeMillis = 2000;
+        settings.optimizeTrials = 4000;
+        TexturePacker p = createPacker(settings, handles, localFile);
+        p.pack(targetFile.parent().file(), targetFile.nameWithoutExtension());
+    }
+    
+    /**
+     * Packs the preview atlas in memory. A call to {@link #cancelTexturePack()}
+     * from any thread stops the pack.
+     * @return The atlas or null if the pack was canceled.
+     */
+    @Override
+    public PackedAtlas texturePack(Array<FileHandle> handles, FileHandle localFile, int maxWidth, int maxHeight, boolean useStripWhitespace, TexturePackListener listener) {
+        Settings settings = createSettings(maxWidth, maxHeight, useStripWhitespace);
+        settings.skyline = true;
+        TexturePacker p = createPacker(settings, handles, localFile);
+        if (listener != null) {
+            p.setProgressListener(new ProgressListener() {
+                @Override
+                public void start(Phase phase) {
+                    listener.progress(phase.name(), 0, 0);
+                }
+                
+                @Override
+                public void progress(Phase phase, int completed, int total) {
+                    listener.progress(phase.name(), completed, total);
+                }
+            });
+        }
+        
+        CancelToken cancel = new CancelToken();
+        p.setCancelToken(cancel);
+        previewCancel = cancel;
+        Array<Page> pages;
+        try {
+            pages = p.packToImages();
+        } catch (CanceledException e) {
+            return null;
+        } finally {
+            if (previewCancel == cancel) {
+                previewCancel = null;
+            }
+        }
+        
+        PackedAtlas packedAtlas = new PackedAtlas();
+        for (Page page : pages) {
+            TextureAtlasData.Page atlasPage = new TextureAtlasData.Page(null, page.imageWidth, page.imageHeight, settings.filterMin.isMipMap(), settings.format, settings.filterMin, settings.filterMag, settings.wrapX, settings.wrapY);
+            packedAtlas.addPage(atlasPage, createPixmap(page.image));
+            page.image = null;
+            
+            for (Rect rect : page.outputRects) {
+                packedAtlas.addRegion(createRegion(atlasPage, page, rect, rect.name, rect.index, rect.splits, rect.pads, rect.offsetX, rect.offsetY, rect.originalWidth, rect.originalHeight, settings));
+                Array<Alias> aliases = new Array<>(rect.aliases.toArray(new Alias[0]));
+                aliases.sort();
+                for (Alias alias : aliases) {
+                    packedAtlas.addRegion(createRegion(atlasPage, page, rect, alias.name, alias.index, alias.splits, alias.pads, alias.offsetX, alias.offsetY, alias.originalWidth, alias.originalHeight, settings));
+                }
+            }
+        }
+        return packedAtlas;
+    }
+    
+    @Override
+    public void cancelTexturePack() {
+        CancelToken cancel = previewCancel;
+        if (cancel != null) {
+            cancel.cancel();
+        }
+    }
+    
+    private Settings createSettings(int maxWidth, int maxHeight, boolean useStripWhitespace) {
         Settings settings = new TexturePacker.Settings();
         settings.maxWidth = maxWidth;
         settings.maxHeight = maxHeight;
@@ -77,8 +167,13 @@ public class DesktopLauncher implements DesktopWorker, Lwjgl3WindowListener {
         settings.useIndexes = false;
         settings.silent = true;
         settings.flattenPaths = true;
+        settings.multithreaded = true;
         settings.stripWhitespaceX = useStripWhitespace;
         settings.stripWhitespaceY = useStripWhitespace;
+        return settings;
+    }
+    
+    private TexturePacker createPacker(Settings settings, Array<FileHandle> handles, FileHandle localFile) {
         TexturePacker p = new TexturePacker(settings);
         for (FileHandle handle : handles) {
             if (handle.exists()) {
@@ -96,7 +191,51 @@ public class DesktopLauncher implements DesktopWorker, Lwjgl3WindowListener {
                 }
             }
         }
-        p.pack(targetFile.parent().file(), targetFile.nameWithoutExtension());
+        return p;
+    }
+    
+    /**
+     * Creates region data with the same values TexturePacker writes to the
+     * pack file.
+     */
+    private TextureAtlasData.Region createRegion(TextureAtlasData.Page atlasPage, Page page, Rect rect, String name, int index, int[] splits, int[] pads, int offsetX, int offsetY, int originalWidth, int originalHeight, Settings settings) {
+        TextureAtlasData.Region region = new TextureAtlasData.Region();
+        region.page = atlasPage;
+        region.name = Rect.getAtlasName(name, settings.flattenPaths);
+        region.index = index;
+        region.rotate = rect.rotated;
+        region.left = page.x + rect.x;
+        region.top = page.y + page.height - rect.height - rect.y;
+        region.width = rect.regionWidth;
+        region.height = rect.regionHeight;
+        if (splits != null) {
+            region.splits = splits;
+        } else if (pads != null) {
+            region.splits = new int[] {0, 0, 0, 0};
+        }
+        region.pads = pads;
+        region.originalWidth = originalWidth;
+        region.originalHeight = originalHeight;
+        region.offsetX = offsetX;
+        region.offsetY = originalHeight - rect.regionHeight - offsetY;
+        return region;
+    }
+    
+    private Pixmap createPixmap(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Pixmap pixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+        IntBuffer pixels = pixmap.getPixels().duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                row[x] = (argb << 8) | (argb >>> 24);
+            }
+            pixels.put(row);
+        }
+        return pixmap;
     }
     
     @Override
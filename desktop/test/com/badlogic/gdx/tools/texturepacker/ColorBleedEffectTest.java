@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColorBleedEffectTest {
+	@Test
+	public void parallelMatchesSerial () {
+		for (int size : new int[] {1, 65, 512}) {
+			BufferedImage page = createPage(size);
+			assertArrayEquals("Size " + size, getPixels(new ColorBleedEffect().processImage(page, 2)),
+				getPixels(new ColorBleedEffect().processImageParallel(page, 2)));
+		}
+	}
+
+	@Test
+	public void parallelMatchesSerialForEveryIteration () {
+		BufferedImage page = createPage(256);
+		for (int maxIterations = 0; maxIterations <= 4; maxIterations++) {
+			assertArrayEquals("Iterations " + maxIterations, getPixels(new ColorBleedEffect().processImage(page, maxIterations)),
+				getPixels(new ColorBleedEffect().processImageParallel(page, maxIterations)));
+		}
+	}
+
+	static private int[] getPixels (BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	/** Scatters opaque rects with transparent gaps over a transparent page, similar to a packed atlas page. */
+	static BufferedImage createPage (int size) {
+		BufferedImage page = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		Random random = new Random(0);
+		for (int y = 0; y < size - 64; y += 66) {
+			for (int x = 0; x < size - 64; x += 66) {
+				int width = 8 + random.nextInt(56), height = 8 + random.nextInt(56);
+				int color = random.nextInt() & 0xffffff;
+				for (int yy = 0; yy < height; yy++)
+					for (int xx = 0; xx < width; xx++)
+						if (random.nextInt(8) != 0) page.setRGB(x + xx, y + yy, 0xff000000 | color ^ (xx * yy));
+			}
+		}
+		return page;
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+
+import org.junit.Test;
+
+public class ImageProcessorTest {
+	@Test
+	public void stripWhitespaceMatchesPerPixelScan () {
+		for (int alphaThreshold : new int[] {0, 127}) {
+			Settings settings = createSettings();
+			settings.alphaThreshold = alphaThreshold;
+			ImageProcessor imageProcessor = new ImageProcessor(settings);
+			BufferedImage[] images = createImages(64, 200);
+			for (int i = 0; i < images.length; i++) {
+				int[] bounds = stripWhitespacePerPixel(images[i], alphaThreshold);
+				Rect rect = imageProcessor.stripWhitespace(images[i]);
+				String message = "Image " + i + ", threshold " + alphaThreshold;
+				if (bounds == null) {
+					assertNull(message, rect);
+					continue;
+				}
+				assertNotNull(message, rect);
+				assertEquals(message, bounds[0], rect.offsetX);
+				assertEquals(message, bounds[1], rect.offsetY);
+				assertEquals(message, bounds[2], rect.regionWidth);
+				assertEquals(message, bounds[3], rect.regionHeight);
+			}
+		}
+	}
+
+	@Test
+	public void stripWhitespaceFindsSinglePixels () {
+		ImageProcessor imageProcessor = new ImageProcessor(createSettings());
+		int size = 17;
+		for (int y = 0; y < size; y += 4) {
+			for (int x = 0; x < size; x += 4) {
+				BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+				image.setRGB(x, y, 0xff000000);
+				int[] bounds = stripWhitespacePerPixel(image, 0);
+				Rect rect = imageProcessor.stripWhitespace(image);
+				assertArrayEquals("Pixel " + x + ", " + y, bounds,
+					new int[] {rect.offsetX, rect.offsetY, rect.regionWidth, rect.regionHeight});
+			}
+		}
+	}
+
+	static Settings createSettings () {
+		Settings settings = new Settings();
+		settings.stripWhitespaceX = true;
+		settings.stripWhitespaceY = true;
+		settings.silent = true;
+		return settings;
+	}
+
+	/** The per-pixel scan that ImageProcessor used before. Returns left, top, width and height, or null if the image is blank. */
+	static int[] stripWhitespacePerPixel (BufferedImage source, int alphaThreshold) {
+		WritableRaster alphaRaster = source.getAlphaRaster();
+		final byte[] a = new byte[1];
+		int top = 0;
+		int bottom = source.getHeight();
+		outer:
+		for (int y = 0; y < source.getHeight(); y++) {
+			for (int x = 0; x < source.getWidth(); x++) {
+				alphaRaster.getDataElements(x, y, a);
+				int alpha = a[0];
+				if (alpha < 0) alpha += 256;
+				if (alpha > alphaThreshold) break outer;
+			}
+			top++;
+		}
+		outer:
+		for (int y = source.getHeight(); --y >= top;) {
+			for (int x = 0; x < source.getWidth(); x++) {
+				alphaRaster.getDataElements(x, y, a);
+				int alpha = a[0];
+				if (alpha < 0) alpha += 256;
+				if (alpha > alphaThreshold) break outer;
+			}
+			bottom--;
+		}
+		int left = 0;
+		int right = source.getWidth();
+		outer:
+		for (int x = 0; x < source.getWidth(); x++) {
+			for (int y = top; y < bottom; y++) {
+				alphaRaster.getDataElements(x, y, a);
+				int alpha = a[0];
+				if (alpha < 0) alpha += 256;
+				if (alpha > alphaThreshold) break outer;
+			}
+			left++;
+		}
+		outer:
+		for (int x = source.getWidth(); --x >= left;) {
+			for (int y = top; y < bottom; y++) {
+				alphaRaster.getDataElements(x, y, a);
+				int alpha = a[0];
+				if (alpha < 0) alpha += 256;
+				if (alpha > alphaThreshold) break outer;
+			}
+			right--;
+		}
+		if (right - left <= 0 || bottom - top <= 0) return null;
+		return new int[] {left, top, right - left, bottom - top};
+	}
+
+	/** Draws a random blob with transparent margins and random alpha on each 4 byte ABGR image. Some images are left blank. */
+	static BufferedImage[] createImages (int size, int count) {
+		Random random = new Random(0);
+		BufferedImage[] images = new BufferedImage[count];
+		for (int i = 0; i < count; i++) {
+			BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+			if (random.nextInt(20) != 0) {
+				int left = random.nextInt(size / 2), top = random.nextInt(size / 2);
+				int right = left + 1 + random.nextInt(size - left), bottom = top + 1 + random.nextInt(size - top);
+				int color = random.nextInt() & 0xffffff;
+				for (int y = top; y < bottom; y++)
+					for (int x = left; x < right; x++)
+						if (random.nextInt(4) != 0) image.setRGB(x, y, random.nextInt(256) << 24 | color);
+			}
+			images[i] = image;
+		}
+		return images;
+	}
+}
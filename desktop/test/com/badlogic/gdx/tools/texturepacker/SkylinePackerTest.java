@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2011 See AUTHORS file.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.badlogic.gdx.tools.texturepacker;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Page;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Rect;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker.Settings;
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.Test;
+
+public class SkylinePackerTest {
+	@Test
+	public void packsEveryRectWithoutOverlap () {
+		for (int count : new int[] {1, 50, 1000}) {
+			Settings settings = createSettings();
+			Array<Rect> rects = createRects(count);
+			checkPages(settings, rects, new SkylinePacker(settings).pack(copy(rects)));
+		}
+	}
+
+	@Test
+	public void packsEveryRectWithoutOverlapOnSmallPages () {
+		Settings settings = createSettings();
+		settings.maxWidth = 256;
+		settings.maxHeight = 256;
+		Array<Rect> rects = createRects(500);
+		Array<Page> pages = new SkylinePacker(settings).pack(copy(rects));
+		assertTrue(pages.size > 1);
+		checkPages(settings, rects, pages);
+	}
+
+	/** Checks that each rect is on exactly one page, inside the page and the maximum size, and doesn't overlap other rects. */
+	static private void checkPages (Settings settings, Array<Rect> rects, Array<Page> pages) {
+		int packed = 0;
+		for (Page page : pages) {
+			assertTrue(page.width <= settings.maxWidth && page.height <= settings.maxHeight);
+			Array<Rect> outputRects = page.outputRects;
+			for (int i = 0; i < outputRects.size; i++) {
+				Rect rect = outputRects.get(i);
+				assertTrue(rect.name, rect.x >= 0 && rect.y >= 0);
+				assertTrue(rect.name, rect.x + rect.width <= page.width && rect.y + rect.height <= page.height);
+				for (int ii = i + 1; ii < outputRects.size; ii++) {
+					Rect other = outputRects.get(ii);
+					boolean overlaps = rect.x < other.x + other.width && other.x < rect.x + rect.width
+						&& rect.y < other.y + other.height && other.y < rect.y + rect.height;
+					assertFalse(rect.name + " overlaps " + other.name, overlaps);
+				}
+			}
+			packed += outputRects.size;
+		}
+		assertEquals(rects.size, packed);
+	}
+
+	/** The settings used for previews, but without power of two pages. */
+	static Settings createSettings () {
+		Settings settings = new Settings();
+		settings.maxWidth = 2048;
+		settings.maxHeight = 2048;
+		settings.duplicatePadding = true;
+		settings.square = true;
+		settings.fast = true;
+		settings.pot = false;
+		settings.silent = true;
+		return settings;
+	}
+
+	static Array<Rect> copy (Array<Rect> rects) {
+		Array<Rect> copy = new Array(rects.size);
+		for (Rect rect : rects) {
+			Rect rectCopy = new Rect();
+			rectCopy.set(rect);
+			copy.add(rectCopy);
+		}
+		return copy;
+	}
+
+	/** Creates rects sized like a UI skin: 80% icons from 12 to 48 pixels, the rest stretchable backgrounds. */
+	static Array<Rect> createRects (int count) {
+		Random random = new Random(0);
+		Array<Rect> rects = new Array(count);
+		for (int i = 0; i < count; i++) {
+			Rect rect = new Rect();
+			rect.name = "image" + i;
+			if (random.nextInt(5) != 0) {
+				rect.width = 12 + random.nextInt(37);
+				rect.height = random.nextBoolean() ? rect.width : 12 + random.nextInt(37);
+			} else {
+				rect.width = 20 + random.nextInt(180);
+				rect.height = 16 + random.nextInt(48);
+			}
+			rect.regionWidth = rect.width;
+			rect.regionHeight = rect.height;
+			rect.originalWidth = rect.width;
+			rect.originalHeight = rect.height;
+			rects.add(rect);
+		}
+		return rects;
+	}
+}